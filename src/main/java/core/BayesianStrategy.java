@@ -0,0 +1,360 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import util.EdMath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sequential model based optimisation of the powers of C and gamma.
+ * <p>
+ * A gaussian process is fitted to the accuracies validated so far,
+ * and the next cells are the ones with the largest expected improvement over the best accuracy.
+ * The search stops when either {@link #maxEvaluations} cells have been validated
+ * or {@link #maxMillis} has passed.
+ */
+public class BayesianStrategy implements SearchStrategy {
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * Length scales tried when fitting the gaussian process, on the normalized powers.
+     */
+    private static final double[] LENGTH_SCALES = {0.05, 0.1, 0.2, 0.3, 0.5, 1.0};
+
+    /**
+     * Noise variance of the standardized accuracies.
+     */
+    private static final double NOISE = 1e-4;
+
+    /**
+     * Minimum improvement worth exploring, on the standardized accuracies.
+     */
+    private static final double XI = 0.01;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final double C_StartPower;
+
+    private final double C_StopPower;
+
+    private final double G_StartPower;
+
+    private final double G_StopPower;
+
+    /**
+     * The number of cells validated at most.
+     */
+    public int maxEvaluations = 30;
+
+    /**
+     * Wall clock budget in milliseconds, 0 for no limit.
+     * The running batch is always finished.
+     */
+    public long maxMillis = 0;
+
+    /**
+     * The number of random cells validated before the model is fitted.
+     */
+    public int initialEvaluations = 6;
+
+    /**
+     * The number of cells proposed at a time, so that they can be validated concurrently.
+     */
+    public int batchSize = 1;
+
+    /**
+     * The number of random candidates the expected improvement is maximized over.
+     */
+    public int candidates = 2000;
+
+    /**
+     * The number n of n fold validation.
+     */
+    public int numFolds = 10;
+
+    /**
+     * Seed of the random cells and candidates, the search is repeatable with the same seed.
+     */
+    public long seed = 17L;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Search in the box of powers, from start power to stop power.
+     */
+    public BayesianStrategy(double C_StartPower, double C_StopPower,
+                            double G_StartPower, double G_StopPower) {
+        this.C_StartPower = C_StartPower;
+        this.C_StopPower = C_StopPower;
+        this.G_StartPower = G_StartPower;
+        this.G_StopPower = G_StopPower;
+    }
+
+    /**
+     * The box configured by the search fields of an {@link SVM}.
+     *
+     * @param svm the svm
+     */
+    public BayesianStrategy(SVM svm) {
+        this(svm.C_StartPower, svm.C_StopPower, svm.G_StartPower, svm.G_StopPower);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public Cell search(CellEvaluator evaluator) throws InterruptedException {
+        long deadline = this.maxMillis > 0 ? System.currentTimeMillis() + this.maxMillis : Long.MAX_VALUE;
+        Random random = new Random(this.seed);
+
+        /* points on the unit square and their accuracies */
+        List<double[]> points = new ArrayList<>();
+        List<Double> accuracies = new ArrayList<>();
+
+        /* step 1: stratified random cells */
+        int initial = Math.max(1, Math.min(this.initialEvaluations, this.maxEvaluations));
+        List<double[]> batch = new ArrayList<>();
+        for (int i = 0; i < initial; i++) {
+            // one random point in every row and column of an initial x initial grid
+            batch.add(new double[]{(i + random.nextDouble()) / initial, random.nextDouble()});
+        }
+        for (int i = initial - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double tmp = batch.get(i)[1];
+            batch.get(i)[1] = batch.get(j)[1];
+            batch.get(j)[1] = tmp;
+        }
+        for (int i = 0; i < initial; i++) {
+            batch.get(i)[1] = (i + batch.get(i)[1]) / initial;
+        }
+        evaluate(evaluator, batch, points, accuracies);
+
+        /* step 2: maximize the expected improvement */
+        while (points.size() < this.maxEvaluations && System.currentTimeMillis() < deadline) {
+            int size = Math.min(this.batchSize, this.maxEvaluations - points.size());
+
+            // pending cells are believed to get the predicted accuracy
+            List<double[]> believedPoints = new ArrayList<>(points);
+            List<Double> believedAccuracies = new ArrayList<>(accuracies);
+            batch = new ArrayList<>();
+            for (int b = 0; b < Math.max(1, size); b++) {
+                Model model = new Model(believedPoints, believedAccuracies);
+                double[] next = null;
+                double bestImprovement = Double.NEGATIVE_INFINITY;
+                for (int k = 0; k < this.candidates; k++) {
+                    double[] candidate = {random.nextDouble(), random.nextDouble()};
+                    double improvement = model.expectedImprovement(candidate);
+                    if (improvement > bestImprovement) {
+                        bestImprovement = improvement;
+                        next = candidate;
+                    }
+                }
+                batch.add(next);
+                believedAccuracies.add(model.mean(next));
+                believedPoints.add(next);
+            }
+            evaluate(evaluator, batch, points, accuracies);
+        }
+
+        /* step 3: the best of all validated cells */
+        List<Cell> cells = new ArrayList<>();
+        double[] results = new double[points.size()];
+        for (int i = 0; i < results.length; i++) {
+            cells.add(cell(points.get(i)));
+            results[i] = accuracies.get(i);
+        }
+        int best = SearchStrategy.best(cells, results);
+        return cells.get(best < 0 ? 0 : best);
+    }
+
+    private void evaluate(CellEvaluator evaluator, List<double[]> batch,
+                          List<double[]> points, List<Double> accuracies) throws InterruptedException {
+        List<Cell> cells = new ArrayList<>();
+        for (double[] point : batch) {
+            cells.add(cell(point));
+        }
+        double[] results = evaluator.crossValidate(cells, this.numFolds, 1.0d);
+        for (int i = 0; i < results.length; i++) {
+            points.add(batch.get(i));
+            accuracies.add(results[i]);
+        }
+    }
+
+    /**
+     * Map a point of the unit square to the powers.
+     */
+    private Cell cell(double[] point) {
+        return new Cell(this.C_StartPower + point[0] * (this.C_StopPower - this.C_StartPower),
+                this.G_StartPower + point[1] * (this.G_StopPower - this.G_StartPower));
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * A gaussian process with squared exponential kernel on standardized accuracies.
+     * The length scale is chosen by maximum marginal likelihood.
+     */
+    private static final class Model {
+        private final List<double[]> points;
+
+        private final double mean;
+
+        private final double sd;
+
+        private final double best;
+
+        private double lengthScale;
+
+        /**
+         * Lower triangular cholesky factor of the kernel matrix.
+         */
+        private double[][] L;
+
+        /**
+         * Inverse of the kernel matrix multiplied by the standardized accuracies.
+         */
+        private double[] alpha;
+
+        Model(List<double[]> points, List<Double> accuracies) {
+            this.points = new ArrayList<>(points);
+            int n = points.size();
+
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                y[i] = accuracies.get(i);
+            }
+            this.mean = EdMath.mean(y);
+            double sd = EdMath.standardDeviation(y);
+            this.sd = sd > 0 ? sd : 1.0d;
+            double best = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                y[i] = (y[i] - this.mean) / this.sd;
+                best = Math.max(best, y[i]);
+            }
+            this.best = best;
+
+            double bestLikelihood = Double.NEGATIVE_INFINITY;
+            for (double lengthScale : LENGTH_SCALES) {
+                double[][] L = cholesky(lengthScale);
+                double[] alpha = solve(L, y);
+                double likelihood = 0.0d;
+                for (int i = 0; i < n; i++) {
+                    likelihood -= 0.5 * y[i] * alpha[i] + Math.log(L[i][i]);
+                }
+                if (likelihood > bestLikelihood) {
+                    bestLikelihood = likelihood;
+                    this.lengthScale = lengthScale;
+                    this.L = L;
+                    this.alpha = alpha;
+                }
+            }
+        }
+
+        private double kernel(double[] a, double[] b, double lengthScale) {
+            double dx = a[0] - b[0];
+            double dy = a[1] - b[1];
+            return Math.exp(-(dx * dx + dy * dy) / (2 * lengthScale * lengthScale));
+        }
+
+        private double[][] cholesky(double lengthScale) {
+            int n = this.points.size();
+            double[][] L = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double sum = kernel(this.points.get(i), this.points.get(j), lengthScale) + (i == j ? NOISE : 0.0d);
+                    for (int k = 0; k < j; k++) {
+                        sum -= L[i][k] * L[j][k];
+                    }
+                    L[i][j] = i == j ? Math.sqrt(Math.max(sum, 1e-12)) : sum / L[j][j];
+                }
+            }
+            return L;
+        }
+
+        /**
+         * Solve L * L^T * x = b.
+         */
+        private static double[] solve(double[][] L, double[] b) {
+            int n = b.length;
+            double[] z = forward(L, b);
+            double[] x = new double[n];
+            for (int i = n - 1; i >= 0; i--) {
+                double sum = z[i];
+                for (int k = i + 1; k < n; k++) {
+                    sum -= L[k][i] * x[k];
+                }
+                x[i] = sum / L[i][i];
+            }
+            return x;
+        }
+
+        /**
+         * Solve L * z = b.
+         */
+        private static double[] forward(double[][] L, double[] b) {
+            int n = b.length;
+            double[] z = new double[n];
+            for (int i = 0; i < n; i++) {
+                double sum = b[i];
+                for (int k = 0; k < i; k++) {
+                    sum -= L[i][k] * z[k];
+                }
+                z[i] = sum / L[i][i];
+            }
+            return z;
+        }
+
+        private double[] kernels(double[] point) {
+            double[] k = new double[this.points.size()];
+            for (int i = 0; i < k.length; i++) {
+                k[i] = kernel(point, this.points.get(i), this.lengthScale);
+            }
+            return k;
+        }
+
+        /**
+         * Predicted accuracy at a point, in percentage.
+         */
+        double mean(double[] point) {
+            double[] k = kernels(point);
+            double mu = 0.0d;
+            for (int i = 0; i < k.length; i++) {
+                mu += k[i] * this.alpha[i];
+            }
+            return this.mean + mu * this.sd;
+        }
+
+        double expectedImprovement(double[] point) {
+            double[] k = kernels(point);
+            double mu = 0.0d;
+            for (int i = 0; i < k.length; i++) {
+                mu += k[i] * this.alpha[i];
+            }
+            double[] v = forward(this.L, k);
+            double variance = 1.0d;
+            for (double vi : v) {
+                variance -= vi * vi;
+            }
+            double sigma = Math.sqrt(Math.max(variance, 1e-12));
+
+            double improvement = mu - this.best - XI;
+            double z = improvement / sigma;
+            return improvement * EdMath.normalCdf(z) + sigma * EdMath.normalPdf(z);
+        }
+    }
+}
+
+// End BayesianStrategy.java
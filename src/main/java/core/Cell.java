@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import libsvm.svm_parameter;
+
+/**
+ * A cell of the parameter space, a pair of powers of C and gamma.
+ * The bases are {@link SVM#C_Base} and {@link SVM#G_Base}.
+ */
+public final class Cell {
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * The power of {@link svm_parameter#C}.
+     */
+    public final double powerOfC;
+
+    /**
+     * The power of {@link svm_parameter#gamma}.
+     */
+    public final double powerOfG;
+
+    //~ Constructors -----------------------------------------------------------
+
+    public Cell(double powerOfC, double powerOfG) {
+        this.powerOfC = powerOfC;
+        this.powerOfG = powerOfG;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Cell)) {
+            return false;
+        }
+        Cell other = (Cell) obj;
+        return Double.compare(this.powerOfC, other.powerOfC) == 0
+                && Double.compare(this.powerOfG, other.powerOfG) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(this.powerOfC) + Double.hashCode(this.powerOfG);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + this.powerOfC + ", " + this.powerOfG + ")";
+    }
+}
+
+// End Cell.java
@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import java.util.List;
+
+/**
+ * Cross validates cells for a {@link SearchStrategy}.
+ * Cells are given in batches, so that the evaluator is free
+ * to run them concurrently or share work between them.
+ */
+public interface CellEvaluator {
+
+    /**
+     * Cross validate a batch of cells.
+     *
+     * @param cells    the cells to validate
+     * @param numFolds the number n of n fold validation
+     * @param fraction fraction of the training samples to validate on, in (0, 1]
+     * @return accuracies in percentage, in the same order as {@code cells}
+     * @throws InterruptedException if interrupted while waiting for the validations
+     */
+    double[] crossValidate(List<Cell> cells, int numFolds, double fraction) throws InterruptedException;
+
+}
+
+// End CellEvaluator.java
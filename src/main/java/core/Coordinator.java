@@ -0,0 +1,298 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import data.Dataset;
+import data.DatasetFile;
+import libsvm.svm_parameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the cells of a search to {@link Worker}s and collects their fold hit counts.
+ * <p>
+ * Every connection takes the next cell when the previous one is done,
+ * so faster workers validate more cells.
+ * The cell of a lost connection goes to the other workers.
+ */
+final class Coordinator implements AutoCloseable {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Coordinator.class);
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final File sharedDirectory;
+
+    private final BlockingDeque<Task> tasks = new LinkedBlockingDeque<>();
+
+    private final AtomicInteger alive = new AtomicInteger();
+
+    private final List<Process> processes = new ArrayList<>();
+
+    private final List<Socket> sockets = new ArrayList<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * The binary copy of every dataset shared with the workers.
+     */
+    private final Map<Dataset, File> sharedFiles = new IdentityHashMap<>();
+
+    private volatile boolean closed = false;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Start the local workers and connect to all workers.
+     *
+     * @param addresses       host:port of running workers, may be null
+     * @param localWorkers    the number of worker processes to start on this host
+     * @param sharedDirectory directory of the binary dataset copies, seen by all workers at the same path
+     * @throws IOException if failed to start or connect to a worker
+     */
+    Coordinator(String[] addresses, int localWorkers, String sharedDirectory) throws IOException {
+        this.sharedDirectory = new File(sharedDirectory);
+        try {
+            List<String> all = new ArrayList<>();
+            for (int i = 0; i < localWorkers; i++) {
+                all.add(InetAddress.getLoopbackAddress().getHostAddress() + ":" + startLocal());
+            }
+            if (addresses != null) {
+                for (String address : addresses) {
+                    all.add(address);
+                }
+            }
+            for (String address : all) {
+                int colon = address.lastIndexOf(':');
+                Socket socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+                socket.setTcpNoDelay(true);
+                this.sockets.add(socket);
+                this.alive.incrementAndGet();
+                Thread thread = new Thread(() -> serve(socket, address), "coordinator-" + address);
+                thread.setDaemon(true);
+                this.threads.add(thread);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        this.threads.forEach(Thread::start);
+        LOGGER.info("coordinating {} workers", this.sockets.size());
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Start a worker process with the classpath of this one, on the loopback address.
+     *
+     * @return the port it listens on
+     */
+    private int startLocal() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Worker.class.getName(), "0", this.sharedDirectory.getPath()).redirectErrorStream(true).start();
+        this.processes.add(process);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = reader.readLine()) != null && !line.startsWith(Worker.PORT_PREFIX)) {
+            LOGGER.debug("worker: {}", line);
+        }
+        if (line == null) {
+            throw new IOException("local worker failed to start");
+        }
+        int port = Integer.parseInt(line.substring(Worker.PORT_PREFIX.length()).trim());
+
+        // keep the pipe drained, or the worker blocks on its outputs
+        Thread drain = new Thread(() -> {
+            try {
+                String output;
+                while ((output = reader.readLine()) != null) {
+                    LOGGER.debug("worker {}: {}", port, output);
+                }
+            } catch (IOException ignored) {
+                // the worker is gone
+            }
+        }, "worker-output-" + port);
+        drain.setDaemon(true);
+        drain.start();
+        return port;
+    }
+
+    /**
+     * Validate cells on the workers.
+     *
+     * @param data     the samples to validate on
+     * @param params   svm parameters of the cells
+     * @param numFolds the number n of n fold validation
+     * @return accuracy of every cell, in the same order
+     * @throws IOException if failed to share the samples
+     */
+    List<Future<Double>> submit(Dataset data, List<svm_parameter> params, int numFolds) throws IOException {
+        if (this.alive.get() == 0) {
+            throw new IllegalStateException("no worker alive");
+        }
+        String path = share(data).getAbsolutePath();
+        List<Future<Double>> futures = new ArrayList<>();
+        for (svm_parameter param : params) {
+            Task task = new Task(path, numFolds, param);
+            this.tasks.add(task);
+            futures.add(task.hits.thenApply(hits -> {
+                int totalHit = 0;
+                for (int hit : hits) {
+                    totalHit += hit;
+                }
+                return 100.0 * totalHit / data.size();
+            }));
+        }
+        if (this.alive.get() == 0) {
+            // the last worker was lost meanwhile
+            failTasks();
+        }
+        return futures;
+    }
+
+    private synchronized File share(Dataset data) throws IOException {
+        File file = this.sharedFiles.get(data);
+        if (file == null) {
+            file = File.createTempFile("dataset", ".bin", this.sharedDirectory);
+            file.deleteOnExit();
+            DatasetFile.write(data, file.getPath());
+            this.sharedFiles.put(data, file);
+        }
+        return file;
+    }
+
+    /**
+     * Feed one worker connection with cells until closed or lost.
+     */
+    private void serve(Socket socket, String address) {
+        Task task = null;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                task = this.tasks.take();
+                out.writeInt(Worker.VALIDATE);
+                out.writeUTF(task.path);
+                out.writeInt(task.numFolds);
+                Worker.writeParameter(out, task.param);
+                out.flush();
+                if (in.readInt() == Worker.OK) {
+                    int[] hits = new int[in.readInt()];
+                    for (int i = 0; i < hits.length; i++) {
+                        hits[i] = in.readInt();
+                    }
+                    task.hits.complete(hits);
+                } else {
+                    task.hits.completeExceptionally(new RuntimeException(address + ": " + in.readUTF()));
+                }
+                task = null;
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            if (!this.closed) {
+                LOGGER.error("worker {} lost", address, e);
+            }
+        } finally {
+            if (task != null) {
+                this.tasks.addFirst(task);
+            }
+            if (this.alive.decrementAndGet() == 0) {
+                failTasks();
+            }
+        }
+    }
+
+    private void failTasks() {
+        Task task;
+        while ((task = this.tasks.poll()) != null) {
+            task.hits.completeExceptionally(new IllegalStateException("no worker alive"));
+        }
+    }
+
+    /**
+     * Disconnect, stop the local workers and delete the shared copies.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Socket socket : this.sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+        this.threads.forEach(Thread::interrupt);
+        for (Process process : this.processes) {
+            process.destroy();
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+        for (File file : this.sharedFiles.values()) {
+            if (!file.delete()) {
+                LOGGER.warn("failed to delete {}", file);
+            }
+        }
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    private static final class Task {
+        private final String path;
+
+        private final int numFolds;
+
+        private final svm_parameter param;
+
+        private final CompletableFuture<int[]> hits = new CompletableFuture<>();
+
+        private Task(String path, int numFolds, svm_parameter param) {
+            this.path = path;
+            this.numFolds = numFolds;
+            this.param = param;
+        }
+    }
+}
+
+// End Coordinator.java
@@ -0,0 +1,667 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import data.Dataset;
+import data.Folds;
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+/**
+ * The {@link CellEvaluator} of {@link SVM#search}.
+ * Takes a snapshot of the search settings of an {@link SVM},
+ * and keeps the folds and the precomputed kernel of the training data
+ * so that they are shared by all batches of a search.
+ */
+final class CrossValidator implements CellEvaluator {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrossValidator.class);
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final Dataset data;
+
+    /**
+     * Template of the svm parameters, every cell works on its own copy.
+     */
+    private final svm_parameter param;
+
+    private final int C_Base;
+
+    private final int G_Base;
+
+    private final boolean concurrentFolds;
+
+    private final boolean warmStart;
+
+    private final boolean precomputeKernel;
+
+    private final boolean pruneFolds;
+
+    /**
+     * Accuracies of earlier searches, null if not stored.
+     */
+    private final ResultStore store;
+
+    /**
+     * The pool to validate the cells on, null to validate in the calling thread.
+     */
+    private final ForkJoinPool executor;
+
+    /**
+     * The workers to validate the cells on, null to validate in this process.
+     */
+    private final Coordinator coordinator;
+
+    /**
+     * Samples of every fraction validated so far.
+     */
+    private final Map<Double, Dataset> subsets = new HashMap<>();
+
+    /**
+     * Folds of every fraction and number of folds validated so far.
+     */
+    private final Map<Double, Map<Integer, Folds>> folds = new HashMap<>();
+
+    /**
+     * The kernel of the latest fraction, if precomputed.
+     */
+    private PrecomputedKernel kernel;
+
+    private double kernelFraction = Double.NaN;
+
+    /**
+     * The latest accuracy of every cell validated on all samples.
+     */
+    private final Map<Cell, Double> accuracies = new HashMap<>();
+
+    /**
+     * The best accuracy on all samples of every number of folds, cells are pruned against it.
+     * Only cells validated on all folds count.
+     */
+    private final Map<Integer, DoubleAccumulator> bars = new HashMap<>();
+
+    /**
+     * Fingerprints of the samples of every fraction, for the keys of the result store.
+     */
+    private final Map<Double, String> fingerprints = new HashMap<>();
+
+    /**
+     * Fingerprint of the samples of the running batch.
+     */
+    private String batchFingerprint;
+
+    private int validatedCells = 0;
+
+    private int prunedCells = 0;
+
+    private int skippedFolds = 0;
+
+    //~ Constructors -----------------------------------------------------------
+
+    CrossValidator(Dataset data, svm_parameter param, SVM svm, ForkJoinPool executor, Coordinator coordinator) {
+        this.data = data;
+        this.param = (svm_parameter) param.clone();
+        this.C_Base = svm.C_Base;
+        this.G_Base = svm.G_Base;
+        this.concurrentFolds = svm.concurrentFolds;
+        this.warmStart = svm.warmStart;
+        this.precomputeKernel = svm.precomputeKernel;
+        this.pruneFolds = svm.pruneFolds;
+        this.store = svm.resultStore == null ? null : new ResultStore(svm.resultStore);
+        this.executor = executor;
+        this.coordinator = coordinator;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public double[] crossValidate(List<Cell> cells, int numFolds, double fraction) throws InterruptedException {
+        try {
+            Dataset subset = subset(fraction);
+            // the strategies may rank cells of partial samples, only the best cell on all samples matters
+            Pruning pruning = this.pruneFolds && fraction >= 1.0d
+                    ? new Pruning(this.bars.computeIfAbsent(numFolds, k ->
+                    new DoubleAccumulator(Math::max, SearchStrategy.ACCURACY_THRESHOLD)), subset.size())
+                    : null;
+            if (this.store != null) {
+                this.batchFingerprint = this.fingerprints.computeIfAbsent(fraction, f -> subset.fingerprint());
+            }
+
+            double[] results = new double[cells.size()];
+            List<Cell> todo = new ArrayList<>();
+            List<Integer> todoIndices = new ArrayList<>();
+            for (int i = 0; i < cells.size(); i++) {
+                svm_parameter param = cellParam(cells.get(i));
+                Double stored = this.store == null ? null : this.store.get(storeKey(numFolds, param.C, param.gamma));
+                if (stored == null) {
+                    todo.add(cells.get(i));
+                    todoIndices.add(i);
+                    continue;
+                }
+                results[i] = stored;
+                if (pruning != null) {
+                    pruning.offer(stored);
+                }
+                System.out.printf("C: " + param.C + ", gamma: " + param.gamma
+                        + ", accuracy: %.2f%% (stored)\n", stored);
+            }
+            if (todo.size() < cells.size()) {
+                LOGGER.info("{} of {} cells taken from the result store", cells.size() - todo.size(), cells.size());
+            }
+
+            if (!todo.isEmpty()) {
+                double[] todoResults;
+                if (this.coordinator != null) {
+                    todoResults = remoteCrossValidation(subset, todo, numFolds);
+                } else if (this.precomputeKernel && this.param.kernel_type == svm_parameter.RBF
+                        && PrecomputedKernel.fits(subset.size())) {
+                    todoResults = precomputedCrossValidation(todo, numFolds, fraction, pruning);
+                } else {
+                    List<svm_parameter> params = new ArrayList<>();
+                    for (Cell cell : todo) {
+                        params.add(cellParam(cell));
+                    }
+                    todoResults = crossValidation(folds(fraction, numFolds), params, pruning);
+                }
+                for (int k = 0; k < todoResults.length; k++) {
+                    results[todoIndices.get(k)] = todoResults[k];
+                }
+            }
+            if (fraction >= 1.0d) {
+                this.validatedCells += cells.size();
+                for (int i = 0; i < results.length; i++) {
+                    this.accuracies.put(cells.get(i), results[i]);
+                }
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("cross validation failed!", e.getCause());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The latest accuracy of a cell validated on all samples.
+     *
+     * @param cell the cell
+     * @return the accuracy, or NaN if it has not been validated on all samples
+     */
+    double accuracyOf(Cell cell) {
+        return this.accuracies.getOrDefault(cell, Double.NaN);
+    }
+
+    /**
+     * @return the number of cells validated on all samples so far, the stored ones included
+     */
+    int getValidatedCells() {
+        return this.validatedCells;
+    }
+
+    /**
+     * @return the number of cells pruned so far
+     */
+    int getPrunedCells() {
+        return this.prunedCells;
+    }
+
+    /**
+     * @return the number of folds skipped by the pruned cells so far
+     */
+    int getSkippedFolds() {
+        return this.skippedFolds;
+    }
+
+    /**
+     * Cross validate cells on a precomputed kernel.
+     * Goes through the cells gamma by gamma, since the kernel holds one gamma at a time.
+     */
+    private double[] precomputedCrossValidation(List<Cell> cells, int numFolds, double fraction, Pruning pruning)
+            throws InterruptedException, ExecutionException {
+        if (this.kernel == null || this.kernelFraction != fraction) {
+            // drop the old one first, two kernels may not fit in the heap
+            this.kernel = null;
+            LOGGER.info("cross validation with precomputed kernel of {} samples", subset(fraction).size());
+            this.kernel = new PrecomputedKernel(subset(fraction), this.executor);
+            this.kernelFraction = fraction;
+        }
+        Folds kernelFolds = this.kernel.folds(numFolds);
+
+        Map<Double, List<Integer>> gammas = new LinkedHashMap<>();
+        for (int i = 0; i < cells.size(); i++) {
+            gammas.computeIfAbsent(cells.get(i).powerOfG, g -> new ArrayList<>()).add(i);
+        }
+
+        double[] results = new double[cells.size()];
+        for (Map.Entry<Double, List<Integer>> entry : gammas.entrySet()) {
+            this.kernel.setGamma(Math.pow(this.G_Base, entry.getKey()), this.executor);
+
+            List<svm_parameter> params = new ArrayList<>();
+            for (int i : entry.getValue()) {
+                svm_parameter param = cellParam(cells.get(i));
+                param.kernel_type = svm_parameter.PRECOMPUTED;
+                params.add(param);
+            }
+            double[] gammaResults = crossValidation(kernelFolds, params, pruning);
+            for (int k = 0; k < gammaResults.length; k++) {
+                results[entry.getValue().get(k)] = gammaResults[k];
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Cross validate cells on the workers, all folds of a cell go to one worker.
+     */
+    private double[] remoteCrossValidation(Dataset subset, List<Cell> cells, int numFolds)
+            throws IOException, InterruptedException, ExecutionException {
+        List<svm_parameter> params = new ArrayList<>();
+        for (Cell cell : cells) {
+            params.add(cellParam(cell));
+        }
+        List<Future<Double>> futures = this.coordinator.submit(subset, params, numFolds);
+        double[] accuracies = new double[params.size()];
+        for (int i = 0; i < accuracies.length; i++) {
+            accuracies[i] = futures.get(i).get();
+            report(numFolds, params.get(i), accuracies[i], null);
+        }
+        return accuracies;
+    }
+
+    /**
+     * Evenly spaced samples of the training data, so that the label distribution is kept.
+     *
+     * @param fraction fraction of the samples, in (0, 1]
+     * @return the samples, shared with the training data
+     */
+    private Dataset subset(double fraction) {
+        if (fraction >= 1.0d) {
+            return this.data;
+        }
+        return this.subsets.computeIfAbsent(fraction, f -> {
+            int n = this.data.size();
+            int m = Math.max(1, (int) Math.round(n * f));
+            Dataset subset = new Dataset();
+            subset.setFeatureNum(this.data.getFeatureNum());
+            for (int i = 0; i < m; i++) {
+                subset.add(this.data.get((int) ((long) i * n / m)));
+            }
+            return subset;
+        });
+    }
+
+    private Folds folds(double fraction, int numFolds) {
+        return this.folds.computeIfAbsent(fraction, f -> new HashMap<>())
+                .computeIfAbsent(numFolds, k -> new Folds(subset(fraction), numFolds));
+    }
+
+    /**
+     * Cross validate a batch of cells and print their accuracies in order.
+     *
+     * @param folds the n fold views of the training data
+     * @param cells   the svm parameters to validate
+     * @param pruning  the pruning of this batch, null to validate all folds
+     * @return accuracies of the cells, in the same order
+     */
+    private double[] crossValidation(Folds folds, List<svm_parameter> cells, Pruning pruning)
+            throws InterruptedException, ExecutionException {
+        if (this.warmStart) {
+            return warmCrossValidation(folds, cells, pruning);
+        }
+        List<Future<Double>> futures = new ArrayList<>();
+        if (this.executor != null) {
+            for (svm_parameter cell : cells) {
+                futures.add(this.executor.submit(() -> crossValidation(folds, cell, pruning)));
+            }
+        }
+        double[] accuracies = new double[cells.size()];
+        for (int i = 0; i < accuracies.length; i++) {
+            svm_parameter cell = cells.get(i);
+            accuracies[i] = this.executor == null ? crossValidation(folds, cell, pruning) : futures.get(i).get();
+            report(folds.getNumFolds(), cell, accuracies[i], pruning);
+        }
+        return accuracies;
+    }
+
+    /**
+     * The key of a cell in the result store, for the samples of the running batch.
+     */
+    private String storeKey(int numFolds, double C, double gamma) {
+        svm_parameter param = (svm_parameter) this.param.clone();
+        param.C = C;
+        param.gamma = gamma;
+        return ResultStore.key(this.batchFingerprint, numFolds, param);
+    }
+
+    /**
+     * Print the accuracy of a cell, and count it if pruned.
+     * The accuracies of cells validated on all folds are stored.
+     */
+    private void report(int numFolds, svm_parameter cell, double accuracy, Pruning pruning) {
+        int skipped = pruning == null ? 0 : pruning.skippedFolds(cell);
+        if (skipped == 0 && this.store != null) {
+            this.store.put(storeKey(numFolds, cell.C, cell.gamma), accuracy);
+        }
+        if (skipped > 0) {
+            this.prunedCells++;
+            this.skippedFolds += skipped;
+            System.out.printf("C: " + cell.C + ", gamma: " + cell.gamma
+                    + ", pruned, skipped " + skipped + " of " + numFolds
+                    + " folds, accuracy: <= %.2f%%\n", accuracy);
+        } else {
+            System.out.printf("C: " + cell.C + ", gamma: " + cell.gamma
+                    + ", accuracy: %.2f%%\n", accuracy);
+        }
+    }
+
+    /**
+     * Cross validate a batch of cells with warm started trainings.
+     * Cells of the same gamma form a chain in ascending C,
+     * every (chain, fold) pair is swept by one task.
+     *
+     * @param folds the n fold views of the training data
+     * @param cells   the svm parameters to validate
+     * @param pruning the pruning of this batch, null to validate all folds
+     * @return accuracies of the cells, in the same order
+     */
+    private double[] warmCrossValidation(Folds folds, List<svm_parameter> cells, Pruning pruning)
+            throws InterruptedException, ExecutionException {
+        Map<Double, List<svm_parameter>> chains = new LinkedHashMap<>();
+        for (svm_parameter cell : cells) {
+            chains.computeIfAbsent(cell.gamma, gamma -> new ArrayList<>()).add(cell);
+        }
+
+        Map<svm_parameter, Integer> totalHits = new IdentityHashMap<>();
+        if (this.executor == null) {
+            for (List<svm_parameter> chain : chains.values()) {
+                chain.sort(Comparator.comparingDouble(cell -> cell.C));
+                for (int fold = 0; fold < folds.getNumFolds(); fold++) {
+                    accumulate(totalHits, chain, sweepFold(folds, chain, fold, pruning));
+                }
+                if (pruning != null) {
+                    // raise the bar for the next chains
+                    for (svm_parameter cell : chain) {
+                        pruning.accuracy(cell, totalHits.get(cell));
+                    }
+                }
+            }
+        } else {
+            List<List<svm_parameter>> sweptChains = new ArrayList<>();
+            List<Callable<int[]>> sweeps = new ArrayList<>();
+            for (List<svm_parameter> chain : chains.values()) {
+                chain.sort(Comparator.comparingDouble(cell -> cell.C));
+                for (int i = 0; i < folds.getNumFolds(); i++) {
+                    final int fold = i;
+                    sweptChains.add(chain);
+                    sweeps.add(() -> sweepFold(folds, chain, fold, pruning));
+                }
+            }
+            List<Future<int[]>> futures = this.executor.invokeAll(sweeps);
+            for (int i = 0; i < futures.size(); i++) {
+                accumulate(totalHits, sweptChains.get(i), futures.get(i).get());
+            }
+        }
+
+        double[] accuracies = new double[cells.size()];
+        for (int i = 0; i < accuracies.length; i++) {
+            svm_parameter cell = cells.get(i);
+            accuracies[i] = pruning == null
+                    ? 100.0 * totalHits.get(cell) / folds.size()
+                    : pruning.accuracy(cell, totalHits.get(cell));
+            report(folds.getNumFolds(), cell, accuracies[i], pruning);
+        }
+        return accuracies;
+    }
+
+    private static void accumulate(Map<svm_parameter, Integer> totalHits, List<svm_parameter> chain, int[] hits) {
+        for (int k = 0; k < hits.length; k++) {
+            totalHits.merge(chain.get(k), hits[k], Integer::sum);
+        }
+    }
+
+    /**
+     * Train one fold with every C of a chain in order,
+     * each training starts from the model of the previous C.
+     *
+     * @param folds the n fold views of the training data
+     * @param chain   svm parameters differ only in C, in ascending C
+     * @param fold    index of the valid fold
+     * @param pruning the pruning of this batch, null to validate all folds
+     * @return hit num in the valid fold of every parameter of the chain
+     */
+    private static int[] sweepFold(Folds folds, List<svm_parameter> chain, int fold, Pruning pruning) {
+        svm_problem problem = folds.trainProblem(fold);
+        int[] hits = new int[chain.size()];
+        svm_model model = null;
+        for (int k = 0; k < hits.length; k++) {
+            svm_parameter param = checkParameter(problem, chain.get(k));
+            if (pruning != null && pruning.skip(param)) {
+                // the next C starts from the model of an earlier one
+                continue;
+            }
+            svm_model seed = model;
+            model = LibsvmOutput.quietly(() -> WarmStartSolver.train(problem, param, seed));
+            hits[k] = validHit(model, folds, fold);
+            if (pruning != null) {
+                pruning.miss(param, folds.end(fold) - folds.start(fold) - hits[k]);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Copy the svm parameter for a cell.
+     * Every cell works on its own copy, cells may be validated concurrently.
+     *
+     * @param cell the cell
+     * @return svm parameter of the cell
+     */
+    private svm_parameter cellParam(Cell cell) {
+        svm_parameter param = (svm_parameter) this.param.clone();
+        param.C = Math.pow(this.C_Base, cell.powerOfC);
+        param.gamma = Math.pow(this.G_Base, cell.powerOfG);
+        return param;
+    }
+
+    /**
+     * do cross validation
+     *
+     * @param folds the n fold views of the training data
+     * @param param   svm parameter of this cell, only read
+     * @param pruning the pruning of this batch, null to validate all folds
+     * @return best accuracy under this set of c and g
+     */
+    private double crossValidation(Folds folds, svm_parameter param, Pruning pruning) {
+        int totalHit = 0;
+
+        if (this.concurrentFolds) {
+            // outside of the search pool, i.e. parallelism 1, the folds are forked to the common pool
+            List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < folds.getNumFolds(); i++) {
+                final int fold = i;
+                tasks.add(ForkJoinTask.adapt(() -> validFold(folds, param, fold, pruning)));
+            }
+            for (ForkJoinTask<Integer> task : ForkJoinTask.invokeAll(tasks)) {
+                totalHit += task.join();
+            }
+        } else {
+            for (int i = 0; i < folds.getNumFolds(); i++) {
+                totalHit += validFold(folds, param, i, pruning);
+            }
+        }
+        if (pruning != null) {
+            return pruning.accuracy(param, totalHit);
+        }
+        // n is in set.size()
+        return 100.0 * totalHit / folds.size();
+    }
+
+    /**
+     * Train on all folds but one and valid on the left one.
+     *
+     * @param folds the n fold views of the training data
+     * @param param   the svm parameter of this cell
+     * @param fold    index of the valid fold
+     * @param pruning the pruning of this batch, null to validate all folds
+     * @return hit num in the valid fold, 0 if skipped
+     */
+    static int validFold(Folds folds, svm_parameter param, int fold, Pruning pruning) {
+        if (pruning != null && pruning.skip(param)) {
+            return 0;
+        }
+        svm_problem problem = folds.trainProblem(fold);
+        svm_parameter checked = checkParameter(problem, param);
+        svm_model model = LibsvmOutput.quietly(() -> svm.svm_train(problem, checked));
+        int hit = validHit(model, folds, fold);
+        if (pruning != null) {
+            pruning.miss(param, folds.end(fold) - folds.start(fold) - hit);
+        }
+        return hit;
+    }
+
+    /**
+     * @param problem the training problem
+     * @param param   the svm parameter
+     * @return {@code param} itself
+     * @throws IllegalArgumentException if libsvm rejects the parameter
+     */
+    private static svm_parameter checkParameter(svm_problem problem, svm_parameter param) {
+        String error_msg = svm.svm_check_parameter(problem, param);
+        if (error_msg != null) {
+            throw new IllegalArgumentException("svm parameter error: " + error_msg);
+        }
+        return param;
+    }
+
+    /**
+     * Count the hits of a model in a valid fold.
+     *
+     * @param model model trained without the fold
+     * @param folds the n fold views of the training data
+     * @param fold  index of the valid fold
+     * @return hit num in the valid fold
+     */
+    private static int validHit(svm_model model, Folds folds, int fold) {
+        int hit = 0;
+        for (int i = folds.start(fold); i < folds.end(fold); i++) {
+            double predictLabel = svm.svm_predict(model, folds.row(i));
+            if (Math.abs(predictLabel - folds.label(i)) < 0.00001) {
+                hit++;
+            }
+        }
+        return hit;
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * Fold level pruning of one batch of cells.
+     * A cell is pruned once the accuracy it could reach at most,
+     * i.e. all samples of the folds left are hit, falls below the bar.
+     * The bar is the best accuracy of cells validated on all folds, and at least the threshold,
+     * so a pruned cell could never have been the best one.
+     */
+    private static final class Pruning {
+        private final DoubleAccumulator bar;
+
+        private final int size;
+
+        /**
+         * Missed samples and skipped folds of every cell.
+         */
+        private final Map<svm_parameter, AtomicInteger[]> counts = new ConcurrentHashMap<>();
+
+        Pruning(DoubleAccumulator bar, int size) {
+            this.bar = bar;
+            this.size = size;
+        }
+
+        private AtomicInteger[] counts(svm_parameter cell) {
+            return this.counts.computeIfAbsent(cell, k -> new AtomicInteger[]{new AtomicInteger(), new AtomicInteger()});
+        }
+
+        private double reachable(svm_parameter cell) {
+            return 100.0 * (this.size - counts(cell)[0].get()) / this.size;
+        }
+
+        /**
+         * Whether the next fold of a cell can be skipped, counted as skipped if so.
+         */
+        boolean skip(svm_parameter cell) {
+            // a cell of same accuracy may still win by smaller C
+            if (reachable(cell) < this.bar.get() - 0.00001) {
+                counts(cell)[1].incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        void miss(svm_parameter cell, int misses) {
+            counts(cell)[0].addAndGet(misses);
+        }
+
+        int skippedFolds(svm_parameter cell) {
+            return counts(cell)[1].get();
+        }
+
+        /**
+         * The accuracy of a cell when its folds are done, raises the bar if it was not pruned.
+         *
+         * @param cell     the cell
+         * @param totalHit hit num of the validated folds
+         * @return the accuracy, or the accuracy it could reach at most if pruned
+         */
+        double accuracy(svm_parameter cell, int totalHit) {
+            if (skippedFolds(cell) > 0) {
+                return reachable(cell);
+            }
+            double accuracy = 100.0 * totalHit / this.size;
+            offer(accuracy);
+            return accuracy;
+        }
+
+        /**
+         * Raise the bar with the accuracy of a cell validated on all folds.
+         */
+        void offer(double accuracy) {
+            this.bar.accumulate(accuracy);
+        }
+    }
+}
+
+// End CrossValidator.java
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The exhaustive grid search, validates every cell of the grid on all samples.
+ */
+public class GridSearchStrategy implements SearchStrategy {
+    //~ Instance fields --------------------------------------------------------
+
+    private final double C_StartPower;
+
+    private final double C_StopPower;
+
+    private final double C_Step;
+
+    private final double G_StartPower;
+
+    private final double G_StopPower;
+
+    private final double G_Step;
+
+    /**
+     * The number n of n fold validation.
+     */
+    public int numFolds = 10;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Create a grid of powers, from start power (inclusive) to stop power (exclusive).
+     */
+    public GridSearchStrategy(double C_StartPower, double C_StopPower, double C_Step,
+                              double G_StartPower, double G_StopPower, double G_Step) {
+        this.C_StartPower = C_StartPower;
+        this.C_StopPower = C_StopPower;
+        this.C_Step = C_Step;
+        this.G_StartPower = G_StartPower;
+        this.G_StopPower = G_StopPower;
+        this.G_Step = G_Step;
+    }
+
+    /**
+     * The grid configured by the search fields of an {@link SVM}.
+     *
+     * @param svm the svm
+     */
+    public GridSearchStrategy(SVM svm) {
+        this(svm.C_StartPower, svm.C_StopPower, svm.C_Step, svm.G_StartPower, svm.G_StopPower, svm.G_Step);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public Cell search(CellEvaluator evaluator) throws InterruptedException {
+        List<Cell> cells = cells();
+        if (cells.isEmpty()) {
+            return new Cell(this.C_StartPower, this.G_StartPower);
+        }
+        double[] accuracies = evaluator.crossValidate(cells, this.numFolds, 1.0d);
+        int best = SearchStrategy.best(cells, accuracies);
+        return cells.get(best < 0 ? 0 : best);
+    }
+
+    /**
+     * All cells of the grid, C major.
+     *
+     * @return the cells
+     */
+    public List<Cell> cells() {
+        return cells(this.C_StartPower, this.C_StopPower, this.C_Step,
+                this.G_StartPower, this.G_StopPower, this.G_Step);
+    }
+
+    static List<Cell> cells(double C_StartPower, double C_StopPower, double C_Step,
+                            double G_StartPower, double G_StopPower, double G_Step) {
+        List<Cell> cells = new ArrayList<>();
+        // count the steps instead of adding them up, fractional steps do not drift
+        for (int c = 0; C_StartPower + c * C_Step < C_StopPower; c++) {
+            for (int g = 0; G_StartPower + g * G_Step < G_StopPower; g++) {
+                cells.add(new Cell(C_StartPower + c * C_Step, G_StartPower + g * G_Step));
+            }
+        }
+        return cells;
+    }
+}
+
+// End GridSearchStrategy.java
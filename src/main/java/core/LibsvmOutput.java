@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import libsvm.svm;
+import libsvm.svm_print_interface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Supplier;
+
+/**
+ * The print function of libsvm, installed once for all threads.
+ * <p>
+ * libsvm keeps a single global print function, so switching it for one training
+ * would switch it for every other training running meanwhile.
+ * Instead, the outputs are logged line by line to the {@code libsvm} logger,
+ * and dropped in the threads running {@link #quietly}.
+ */
+final class LibsvmOutput implements svm_print_interface {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("libsvm");
+
+    private static final LibsvmOutput INSTANCE = new LibsvmOutput();
+
+    static {
+        svm.svm_set_print_string_function(INSTANCE);
+    }
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * The unfinished line of every thread.
+     */
+    private final ThreadLocal<StringBuilder> lines = ThreadLocal.withInitial(StringBuilder::new);
+
+    private final ThreadLocal<Boolean> quiet = ThreadLocal.withInitial(() -> false);
+
+    //~ Constructors -----------------------------------------------------------
+
+    private LibsvmOutput() {
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Make sure the print function is installed.
+     */
+    static void install() {
+        // installed by the static initializer
+    }
+
+    /**
+     * Run a training without outputs.
+     *
+     * @param training the training
+     * @param <T>      result type
+     * @return result of the training
+     */
+    static <T> T quietly(Supplier<T> training) {
+        boolean quiet = INSTANCE.quiet.get();
+        INSTANCE.quiet.set(true);
+        try {
+            return training.get();
+        } finally {
+            INSTANCE.quiet.set(quiet);
+        }
+    }
+
+    @Override
+    public void print(String s) {
+        if (this.quiet.get()) {
+            return;
+        }
+        StringBuilder line = this.lines.get();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                LOGGER.debug(line.toString());
+                line.setLength(0);
+            } else {
+                line.append(c);
+            }
+        }
+    }
+}
+
+// End LibsvmOutput.java
@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import data.Dataset;
+import data.Folds;
+import data.Sample;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * RBF kernel matrix of a dataset in the form of
+ * {@link svm_parameter#PRECOMPUTED} rows.
+ * The squared distances are computed only once,
+ * every gamma only exponentiates them into the same rows,
+ * so the rows can be shared by all C values and all folds.
+ */
+final class PrecomputedKernel {
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * Rows and columns of a block of the distance matrix.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    /**
+     * Estimated heap size of an {@link svm_node} plus the reference to it.
+     */
+    private static final int NODE_BYTES = 32;
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * Squared euclidean distances between every two samples.
+     */
+    private final double[][] distances;
+
+    /**
+     * The precomputed rows. rows[i][0] holds the serial number i + 1 of sample i,
+     * rows[i][j + 1] holds the kernel value between sample i and sample j.
+     */
+    private final svm_node[][] rows;
+
+    private final double[] labels;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Compute the squared distances of the dataset block by block.
+     *
+     * @param dataset  the scaled training data
+     * @param executor the pool to compute the blocks on, null to compute in this thread
+     * @throws InterruptedException if interrupted while waiting for the blocks
+     * @throws ExecutionException   if any block failed
+     */
+    PrecomputedKernel(Dataset dataset, ForkJoinPool executor)
+            throws InterruptedException, ExecutionException {
+        int n = dataset.size();
+
+        /* step 1: densify the features and their squared norms */
+        int maxIndex = 0;
+        for (Sample sample : dataset) {
+            for (svm_node node : sample) {
+                maxIndex = Math.max(maxIndex, node.index);
+            }
+        }
+        final int dimension = maxIndex;
+        double[][] features = new double[n][dimension];
+        double[] squares = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (svm_node node : dataset.get(i)) {
+                features[i][node.index - 1] = node.value;
+                squares[i] += node.value * node.value;
+            }
+        }
+
+        /* step 2: fill the upper triangle by blocks and mirror them */
+        this.distances = new double[n][n];
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        forEach(executor, blocks, bi -> {
+            int iEnd = Math.min(n, (bi + 1) * BLOCK_SIZE);
+            for (int bj = bi; bj < blocks; bj++) {
+                int jEnd = Math.min(n, (bj + 1) * BLOCK_SIZE);
+                for (int i = bi * BLOCK_SIZE; i < iEnd; i++) {
+                    double[] xi = features[i];
+                    for (int j = Math.max(i + 1, bj * BLOCK_SIZE); j < jEnd; j++) {
+                        double[] xj = features[j];
+                        double dot = 0.0d;
+                        for (int k = 0; k < dimension; k++) {
+                            dot += xi[k] * xj[k];
+                        }
+                        // same formula as libsvm, so that the kernel values agree with it
+                        double distance = Math.max(0.0d, squares[i] + squares[j] - 2 * dot);
+                        this.distances[i][j] = distance;
+                        this.distances[j][i] = distance;
+                    }
+                }
+            }
+        });
+
+        /* step 3: allocate the precomputed rows once */
+        this.rows = new svm_node[n][n + 1];
+        this.labels = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= n; j++) {
+                this.rows[i][j] = new svm_node();
+                this.rows[i][j].index = j;
+            }
+            this.rows[i][0].value = i + 1;
+            this.labels[i] = dataset.get(i).getLabel();
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Estimate the heap size needed by a kernel of {@code n} samples.
+     *
+     * @param n number of samples
+     * @return estimated bytes
+     */
+    static long estimateBytes(int n) {
+        return (long) n * n * Double.BYTES + (long) n * (n + 1) * NODE_BYTES;
+    }
+
+    /**
+     * Whether a kernel of {@code n} samples fits in half of the free heap.
+     *
+     * @param n number of samples
+     * @return true if it is safe to precompute the kernel
+     */
+    static boolean fits(int n) {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return estimateBytes(n) < free / 2;
+    }
+
+    /**
+     * Exponentiate the distances with a new gamma into the rows.
+     * Must not be called while the rows are used by any training.
+     *
+     * @param gamma    see{@link svm_parameter#gamma}
+     * @param executor the pool to compute the rows on, null to compute in this thread
+     * @throws InterruptedException if interrupted while waiting for the rows
+     * @throws ExecutionException   if any row failed
+     */
+    void setGamma(double gamma, ForkJoinPool executor)
+            throws InterruptedException, ExecutionException {
+        int n = this.rows.length;
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        forEach(executor, blocks, b -> {
+            for (int i = b * BLOCK_SIZE; i < Math.min(n, (b + 1) * BLOCK_SIZE); i++) {
+                svm_node[] row = this.rows[i];
+                double[] distance = this.distances[i];
+                for (int j = 0; j < n; j++) {
+                    row[j + 1].value = Math.exp(-gamma * distance[j]);
+                }
+            }
+        });
+    }
+
+    /**
+     * The n fold views of the precomputed rows.
+     * They keep referring to the rows, so are valid for every gamma.
+     *
+     * @param numFolds the number n of n fold validation
+     * @return the folds
+     */
+    Folds folds(int numFolds) {
+        return new Folds(this.rows, this.labels, numFolds);
+    }
+
+    private static void forEach(ForkJoinPool executor, int count, IntConsumer action)
+            throws InterruptedException, ExecutionException {
+        if (executor == null) {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                action.accept(index);
+                return null;
+            });
+        }
+        for (Future<Void> task : executor.invokeAll(tasks)) {
+            task.get();
+        }
+    }
+}
+
+// End PrecomputedKernel.java
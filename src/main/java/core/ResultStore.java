@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import libsvm.svm_parameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An on-disk store of cross validation accuracies, see {@link SVM#resultStore}.
+ * <p>
+ * Every line of the file is a key and an accuracy separated by a tab.
+ * A line is appended and synced as soon as a cell is validated,
+ * so a killed search loses at most the cells it was validating.
+ * An incomplete last line is ignored when the store is opened again.
+ */
+public final class ResultStore {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultStore.class);
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final File file;
+
+    private final Map<String, Double> results = new HashMap<>();
+
+    /**
+     * Whether the file ends with an incomplete line, the next result starts a new line then.
+     */
+    private boolean brokenTail = false;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Open a store, the file is created on the first result.
+     *
+     * @param filename file of the store
+     */
+    public ResultStore(String filename) {
+        this.file = new File(filename);
+        if (!this.file.exists()) {
+            return;
+        }
+        try (FileReader fr = new FileReader(this.file);
+             BufferedReader br = new BufferedReader(fr)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                try {
+                    if (tab > 0) {
+                        this.results.put(line.substring(0, tab), Double.parseDouble(line.substring(tab + 1)));
+                        continue;
+                    }
+                } catch (NumberFormatException ignored) {
+                    // fall through
+                }
+                LOGGER.warn("broken line in result store {} ignored: {}", filename, line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+            if (raf.length() > 0) {
+                raf.seek(raf.length() - 1);
+                this.brokenTail = raf.read() != '\n';
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        LOGGER.info("{} results loaded from {}", this.results.size(), filename);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The key of a cell.
+     *
+     * @param fingerprint fingerprint of the training data, see {@link data.Dataset#fingerprint()}
+     * @param numFolds    the number of folds, the folds are consecutive blocks of the data
+     * @param param       the svm parameter of the cell
+     * @return the key
+     */
+    public static String key(String fingerprint, int numFolds, svm_parameter param) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(fingerprint)
+                .append(" folds=").append(numFolds)
+                .append(" svm_type=").append(param.svm_type)
+                .append(" kernel_type=").append(param.kernel_type)
+                .append(" degree=").append(param.degree)
+                .append(" gamma=").append(param.gamma)
+                .append(" coef0=").append(param.coef0)
+                .append(" C=").append(param.C)
+                .append(" eps=").append(param.eps)
+                .append(" nu=").append(param.nu)
+                .append(" p=").append(param.p)
+                .append(" shrinking=").append(param.shrinking)
+                .append(" probability=").append(param.probability);
+        for (int i = 0; i < param.nr_weight; i++) {
+            sb.append(" weight").append(param.weight_label[i]).append('=').append(param.weight[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param key key of the cell
+     * @return the stored accuracy, or null if the cell is not stored
+     */
+    public synchronized Double get(String key) {
+        return this.results.get(key);
+    }
+
+    /**
+     * Store the accuracy of a cell, appended to the file at once.
+     *
+     * @param key      key of the cell
+     * @param accuracy accuracy of the cell
+     */
+    public synchronized void put(String key, double accuracy) {
+        this.results.put(key, accuracy);
+        try (FileOutputStream fos = new FileOutputStream(this.file, true)) {
+            String line = (this.brokenTail ? "\n" : "") + key + '\t' + accuracy + '\n';
+            fos.write(line.getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+            this.brokenTail = false;
+        } catch (IOException e) {
+            LOGGER.error("failed to store result to {}", this.file, e);
+        }
+    }
+
+    public synchronized int size() {
+        return this.results.size();
+    }
+}
+
+// End ResultStore.java
@@ -18,15 +18,25 @@ import data.Sample;
 import libsvm.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import predict.BatchPredictor;
+import predict.CompiledModel;
+import predict.PredictionCache;
+import predict.PredictionMetrics;
+import predict.Predictor;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Main working class.
+ * <p>
+ * Every instance has its own svm parameters and search settings,
+ * so several instances may train concurrently, one thread each.
+ * To predict from many threads, share a {@link Predictor} of the trained model.
  *
  * @author edwardlol
  *         Created by edwardlol on 2017/4/18.
@@ -34,21 +44,14 @@ import java.util.Date;
 public class SVM {
     //~ Static fields/initializers ---------------------------------------------
 
-    private static SVM instance;
-
     private static final Logger LOGGER = LoggerFactory.getLogger(SVM.class);
 
-    /**
-     * Suppress training log outputs.
-     */
-    private static svm_print_interface svm_print_null = s -> {
-    };
+    private static final PredictionMetrics.Timer PREDICT_TIMER = PredictionMetrics.timer("svm.predict");
 
-    /**
-     * Date format for generating output file.
-     * May be removed in the future because the only usage {@link this#test} is deprecated.
-     */
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_hh:mm:ss");
+    static {
+        // training outputs go to the libsvm logger, see LibsvmOutput
+        LibsvmOutput.install();
+    }
 
     //~ Instance fields --------------------------------------------------------
 
@@ -103,12 +106,108 @@ public class SVM {
      */
     public int G_StopPower = 8;
 
+    /**
+     * The number of threads used by {@link #search}.
+     * Each thread cross validates one (C, gamma) cell at a time,
+     * 1 means the cells are searched one by one in the calling thread.
+     */
+    public int parallelism = 1;
+
+    /**
+     * Whether to train the folds of one cell concurrently.
+     * The folds share the {@link #parallelism} threads of the grid search,
+     * so this only helps when there are fewer cells than threads,
+     * e.g. a fine search around a known good (C, gamma).
+     * With parallelism 1 the folds run on the {@link ForkJoinPool#commonPool()}.
+     */
+    public boolean concurrentFolds = false;
+
+    /**
+     * Whether {@link #search} may precompute the RBF kernel matrix.
+     * The squared distances are then computed once for the whole grid
+     * and shared by all C values and folds of every gamma.
+     * The rows take n x (n + 1) {@link svm_node}s, about 1 GB for 5000 samples,
+     * so it is off by default, and only used when the matrix fits in half of the free heap.
+     */
+    public boolean precomputeKernel = false;
+
+    /**
+     * Whether to warm start the trainings of {@link #search}.
+     * Each fold then goes through the C values of a gamma in ascending order,
+     * every training starts from the solution of the previous C.
+     * Only two class {@link svm_parameter#C_SVC} problems are warm started.
+     */
+    public boolean warmStart = false;
+
+    /**
+     * Whether {@link #search} may stop validating a cell early.
+     * A cell is pruned once the folds it missed so far prove that it cannot reach
+     * the best accuracy found on all samples, nor the accuracy threshold.
+     * The pruned cells report the accuracy they could reach at most.
+     */
+    public boolean pruneFolds = false;
+
+    /**
+     * File of the {@link ResultStore} of {@link #search}, null for no store.
+     * Cells found in the store are not validated again,
+     * so a search killed halfway resumes where it stopped.
+     */
+    public String resultStore = null;
+
+    /**
+     * Addresses (host:port) of running {@link Worker}s to validate the cells of {@link #search} on,
+     * null for none. An address listed twice gets two cells at a time.
+     * The cells validated by workers are neither warm started nor pruned.
+     * A worker serving other hosts has to be started with its bind address and {@link #sharedDirectory},
+     * see {@link Worker}.
+     */
+    public String[] workers = null;
+
+    /**
+     * The number of {@link Worker} processes {@link #search} starts on this host, and stops when done.
+     */
+    public int localWorkers = 0;
+
+    /**
+     * Directory of the binary copies of the training data read by the workers,
+     * it has to be seen by all workers at the same path.
+     */
+    public String sharedDirectory = System.getProperty("java.io.tmpdir");
+
+    /**
+     * The number of predictions {@link #predict} keeps in a {@link PredictionCache}, 0 for no cache.
+     * Set it before the first prediction.
+     */
+    public long predictionCacheSize = 0;
+
+    private volatile PredictionCache predictionCache;
+
+    /**
+     * The accuracy of the best cell of the latest {@link #search}, in percentage.
+     */
+    private double bestAccuracy = Double.NaN;
+
+    /**
+     * The number of cells validated on all samples by the latest {@link #search}.
+     */
+    private int validatedCells;
+
+    /**
+     * The number of cells pruned by the latest {@link #search}.
+     */
+    private int prunedCells;
+
+    /**
+     * The number of folds skipped by the cells pruned in the latest {@link #search}.
+     */
+    private int skippedFolds;
+
     //~ Constructors -----------------------------------------------------------
 
     /**
      * Initializing default params.
      */
-    private SVM() {
+    public SVM() {
         this.param.svm_type = svm_parameter.C_SVC;
         this.param.kernel_type = svm_parameter.RBF;
         this.param.C = 0.015625; // for C_SVC, EPSILON_SVR and NU_SVR, default 1.0 / data.getFeatureNum()
@@ -117,11 +216,14 @@ public class SVM {
         this.param.cache_size = 100.0d;
     }
 
+    /**
+     * The shared instance.
+     * Its parameters are shared by all callers, create an own instance to train concurrently.
+     *
+     * @return the shared instance
+     */
     public static SVM getInstance() {
-        if (instance == null) {
-            instance = new SVM();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
     //~ Methods ----------------------------------------------------------------
@@ -133,6 +235,36 @@ public class SVM {
      * @return an {@link svm_model}
      */
     public svm_model train(Dataset dataset) {
+        return train(dataset, null);
+    }
+
+    /**
+     * Train svm model starting from the solution of another model.
+     * The seed must have been trained on the same dataset, e.g. with a smaller C,
+     * see {@link WarmStartSolver#train}.
+     *
+     * @param dataset the training set
+     * @param seed    a model trained on the same dataset, null to start from scratch
+     * @return an {@link svm_model}
+     */
+    public svm_model train(Dataset dataset, svm_model seed) {
+        svm_model model = train(dataset, this.param, seed);
+        if (model != null) {
+            this.model = model;
+        }
+        return model;
+    }
+
+    /**
+     * Train svm model with the given parameter.
+     * Does not touch any instance field so that it can be called concurrently.
+     *
+     * @param dataset the training set
+     * @param param   the svm parameter
+     * @param seed    a model trained on the same dataset, may be null
+     * @return an {@link svm_model}, or null if the parameter is illegal
+     */
+    private static svm_model train(Dataset dataset, svm_parameter param, svm_model seed) {
         /* set svm problem */
         svm_problem problem = new svm_problem();
         problem.l = dataset.size();
@@ -144,10 +276,9 @@ public class SVM {
         }
 
         /* train svm model */
-        String error_msg = svm.svm_check_parameter(problem, this.param);
+        String error_msg = svm.svm_check_parameter(problem, param);
         if (error_msg == null) {
-            this.model = svm.svm_train(problem, this.param);
-            return this.model;
+            return WarmStartSolver.train(problem, param, seed);
         } else {
             LOGGER.error("svm parameter error: {}", error_msg);
             return null;
@@ -185,6 +316,16 @@ public class SVM {
         }
     }
 
+    /**
+     * A thread-safe predictor of the latest trained or loaded model.
+     * The predictor keeps the model as it is now, later trainings do not change it.
+     *
+     * @return the predictor, or null if there is no model
+     */
+    public Predictor getPredictor() {
+        return this.model == null ? null : new Predictor(this.model);
+    }
+
     /**
      * Predict the label of the sample with the given model.
      *
@@ -193,7 +334,71 @@ public class SVM {
      * @return the predict label of the sample
      */
     public double predict(svm_model model, Sample sample) {
-        return svm.svm_predict(model, sample.getFeatureArray());
+        PredictionCache cache = getPredictionCache();
+        if (!PredictionMetrics.isEnabled()) {
+            if (cache != null) {
+                return cache.predict(model, sample);
+            }
+            return svm.svm_predict(model, sample.getFeatureArray());
+        }
+        long start = System.nanoTime();
+        double label;
+        int kernels;
+        if (cache != null) {
+            // a hit computes no kernel value
+            int[] computed = {0};
+            label = cache.predict(model, sample, x -> {
+                computed[0] = model.l;
+                return svm.svm_predict(model, x);
+            });
+            kernels = computed[0];
+        } else {
+            label = svm.svm_predict(model, sample.getFeatureArray());
+            kernels = model.l;
+        }
+        PREDICT_TIMER.record(System.nanoTime() - start, kernels);
+        return label;
+    }
+
+    /**
+     * The owner of this instance may report the cache with {@link PredictionMetrics#gauges(String, PredictionCache)},
+     * under a name of its own, and remove the gauges with {@link PredictionMetrics#removeGauges} when done with it.
+     *
+     * @return the cache of {@link #predict}, null if {@link #predictionCacheSize} is 0
+     */
+    public PredictionCache getPredictionCache() {
+        if (this.predictionCache == null && this.predictionCacheSize > 0) {
+            synchronized (this) {
+                if (this.predictionCache == null) {
+                    this.predictionCache = new PredictionCache(this.predictionCacheSize);
+                }
+            }
+        }
+        return this.predictionCache;
+    }
+
+    /**
+     * Predict all samples on all cores, see {@link BatchPredictor}.
+     * Models of a kernel {@link CompiledModel} does not support are predicted by libsvm, sample by sample.
+     *
+     * @param model trained model
+     * @param data  samples to be predicted
+     * @return the predict labels of the samples
+     */
+    public double[] predictBatch(svm_model model, Dataset data) {
+        return new Predictor(model).predictBatch(data);
+    }
+
+    /**
+     * The decision values of all samples on all cores, see {@link BatchPredictor}.
+     * Models of a kernel {@link CompiledModel} does not support are predicted by libsvm, sample by sample.
+     *
+     * @param model trained model
+     * @param data  samples to be predicted
+     * @return the decision values of every sample, one per class pair
+     */
+    public double[][] decisionValuesBatch(svm_model model, Dataset data) {
+        return new Predictor(model).decisionValuesBatch(data);
     }
 
     /**
@@ -225,93 +430,70 @@ public class SVM {
     }
 
     /**
-     * search the best svm parameter
+     * search the best svm parameter with an exhaustive grid search
+     * of the powers configured by the fields of this class.
      *
      * @param data training data
      * @return svm_parameter
      */
     public svm_parameter gridSearch(Dataset data) {
-        // suppress training outputs
-        svm.svm_set_print_string_function(svm_print_null);
-
-        int bestPowerOfC = this.C_StartPower;
-        int bestPowerOfG = this.G_StartPower;
-
-        double bestAccuracy = 0.0;
-
-        for (int powerOfC = C_StartPower; powerOfC < C_StopPower; powerOfC += C_Step) {
-            for (int powerOfG = G_StartPower; powerOfG < G_StopPower; powerOfG += G_Step) {
-                // TODO: 17-4-17 hard code 10 fold, but it seems to be reasonable
-                double accuracy = crossValidation(data, powerOfC, powerOfG, 10);
-
-                System.out.printf("C: " + Math.pow(this.C_Base, powerOfC)
-                        + "gamma: " + Math.pow(this.G_Base, powerOfG)
-                        + ", accuracy: %.2f%%\n", accuracy);
-                if (accuracy > 0.6) {
-                    if ((accuracy > bestAccuracy)
-                            // when get same accuracy, prefer the smaller C
-                            || (Math.abs(accuracy - bestAccuracy) < 0.00001 && powerOfC < bestPowerOfC)) {
-                        bestAccuracy = accuracy;
-                        bestPowerOfC = powerOfC;
-                        bestPowerOfG = powerOfG;
-                    }
-                }
-                System.out.printf("best C: " + Math.pow(this.C_Base, bestPowerOfC)
-                        + ", best gamma: " + Math.pow(this.G_Base, bestPowerOfG)
-                        + ", best accuracy: %.2f%%\n", bestAccuracy);
-            }
-        }
-        this.param.C = Math.pow(2, bestPowerOfC);
-        this.param.gamma = Math.pow(2, bestPowerOfG);
-        System.out.println("-----------------------------------------------------------------------");
-        System.out.println("best C: " + this.param.C + "; best gamma: " + this.param.gamma + "; accuracy: " + bestAccuracy);
-        return this.param;
+        return search(data, new GridSearchStrategy(this));
     }
 
     /**
-     * do cross validation
+     * search the best svm parameter with a {@link SearchStrategy}.
+     * The cells are cross validated by {@link #parallelism} threads,
+     * but always compared in order, so the result does not depend on it.
      *
-     * @param dataset    training data
-     * @param power_of_c power of c, see{@link svm_parameter#C}
-     * @param power_of_g power of g, see{@link svm_parameter#gamma}
-     * @param numFolds   the number n of n fold validation
-     * @return best accuracy under this set of c and g
-     */
-    private double crossValidation(Dataset dataset, int power_of_c, int power_of_g, int numFolds) {
-        if (!dataset.isScaled()) {
-            dataset.linearScale();
+     * @param data     training data
+     * @param strategy the search strategy
+     * @return svm_parameter
+     */
+    public svm_parameter search(Dataset data, SearchStrategy strategy) {
+        // scale before any cross validation starts, they share the feature rows
+        if (!data.isScaled()) {
+            data.linearScale();
         }
 
-        this.param.C = Math.pow(C_Base, power_of_c);
-        this.param.gamma = Math.pow(G_Base, power_of_g);
-
-        int totalHit = 0;
-        // valid set length
-        int vsLen = dataset.size() / numFolds;
-
-        for (int i = 0; i <= numFolds; i++) {
-            Dataset trainData = new Dataset();
-            Dataset validData = new Dataset();
-
-            // valid set start index
-            int vsStart = i * vsLen;
-            // valid set end index
-            int vsEnd = i == numFolds ? dataset.size() : (i + 1) * vsLen;
-
-            for (int j = 0; j < vsStart; j++) {
-                trainData.add(dataset.get(j).clone());
+        Coordinator coordinator = null;
+        if (this.localWorkers > 0 || this.workers != null) {
+            try {
+                coordinator = new Coordinator(this.workers, this.localWorkers, this.sharedDirectory);
+            } catch (IOException e) {
+                LOGGER.error("failed to connect to workers!", e);
+                return null;
             }
-            for (int j = vsStart; j < vsEnd; j++) {
-                validData.add(dataset.get(j).clone());
+        }
+        ForkJoinPool executor = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+        CrossValidator evaluator = new CrossValidator(data, this.param, this, executor, coordinator);
+        Cell best;
+        try {
+            best = strategy.search(evaluator);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("grid search interrupted!");
+            return null;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
-            for (int j = vsEnd; j < dataset.size(); j++) {
-                trainData.add(dataset.get(j).clone());
+            if (coordinator != null) {
+                coordinator.close();
             }
-            svm_model model = train(trainData);
-            totalHit += valid(model, validData, false);
         }
-        // n is in set.size()
-        return 100.0 * totalHit / dataset.size();
+        this.bestAccuracy = evaluator.accuracyOf(best);
+        this.validatedCells = evaluator.getValidatedCells();
+        this.prunedCells = evaluator.getPrunedCells();
+        this.skippedFolds = evaluator.getSkippedFolds();
+        this.param.C = Math.pow(this.C_Base, best.powerOfC);
+        this.param.gamma = Math.pow(this.G_Base, best.powerOfG);
+        System.out.println("-----------------------------------------------------------------------");
+        System.out.println("best C: " + this.param.C + "; best gamma: " + this.param.gamma
+                + "; accuracy: " + this.bestAccuracy);
+        if (this.pruneFolds) {
+            System.out.println("pruned cells: " + this.prunedCells + "; skipped folds: " + this.skippedFolds);
+        }
+        return this.param;
     }
 
     //~ Getter/Setter methods --------------------------------------------------
@@ -361,6 +543,35 @@ public class SVM {
         this.param.eps = eps;
     }
 
+    /**
+     * @return the accuracy of the best cell of the latest search, in percentage
+     */
+    public double getBestAccuracy() {
+        return this.bestAccuracy;
+    }
+
+    /**
+     * @return the number of cells validated on all samples by the latest search,
+     * the ones taken from the {@link #resultStore} included
+     */
+    public int getValidatedCells() {
+        return this.validatedCells;
+    }
+
+    /**
+     * @return the number of cells pruned by the latest search, see {@link #pruneFolds}
+     */
+    public int getPrunedCells() {
+        return this.prunedCells;
+    }
+
+    /**
+     * @return the number of folds skipped by the cells pruned in the latest search
+     */
+    public int getSkippedFolds() {
+        return this.skippedFolds;
+    }
+
     //~ Deprecated methods -----------------------------------------------------
 
     /**
@@ -377,7 +588,7 @@ public class SVM {
         logger.debug("Hello world, I'm a DEBUG level message");
         /* preparation for the log file */
         Date now = new Date();
-        String suffix = dateFormat.format(now);
+        String suffix = new SimpleDateFormat("yyyy-MM-dd_hh:mm:ss").format(now);
 
         try (FileWriter fw = new FileWriter(resultFile + suffix + ".log");
              BufferedWriter bw = new BufferedWriter(fw)) {
@@ -406,6 +617,15 @@ public class SVM {
             e.printStackTrace();
         }
     }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * Holder of the shared instance, initialized on first use by the class loader.
+     */
+    private static final class Holder {
+        private static final SVM INSTANCE = new SVM();
+    }
 }
 
 // End SVM.java
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import java.util.List;
+
+/**
+ * A strategy to search the best cell of svm parameters.
+ * See {@link SVM#search}.
+ */
+public interface SearchStrategy {
+
+    /**
+     * Only cells of accuracy above the threshold are taken, in percentage.
+     */
+    double ACCURACY_THRESHOLD = 0.6;
+
+    /**
+     * Search the best cell.
+     *
+     * @param evaluator evaluator of the cells
+     * @return the best cell found
+     * @throws InterruptedException if interrupted while waiting for the evaluator
+     */
+    Cell search(CellEvaluator evaluator) throws InterruptedException;
+
+    /**
+     * Pick the best cell of a batch, the rule of the original grid search.
+     * Only accuracies above 0.6 are taken, when get same accuracy, prefer the smaller C,
+     * when still the same, prefer the first one.
+     *
+     * @param cells      the cells
+     * @param accuracies accuracies of the cells
+     * @return index of the best cell, or -1 if there is not any
+     */
+    static int best(List<Cell> cells, double[] accuracies) {
+        int best = -1;
+        double bestAccuracy = 0.0;
+        for (int i = 0; i < accuracies.length; i++) {
+            double accuracy = accuracies[i];
+            if (accuracy > ACCURACY_THRESHOLD) {
+                if ((accuracy > bestAccuracy)
+                        // when get same accuracy, prefer the smaller C
+                        || (Math.abs(accuracy - bestAccuracy) < 0.00001
+                        && cells.get(i).powerOfC < cells.get(best).powerOfC)) {
+                    bestAccuracy = accuracy;
+                    best = i;
+                }
+            }
+        }
+        return best;
+    }
+
+}
+
+// End SearchStrategy.java
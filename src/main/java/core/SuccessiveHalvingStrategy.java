@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Successive halving over the grid, followed by a coarse to fine refinement.
+ * <p>
+ * All cells of the grid are first validated on a small part of the samples with few folds,
+ * only the best {@code 1 / eta} of them are promoted to {@code eta} times more samples,
+ * until the left ones are validated on all samples with all folds.
+ * The winner is then refined by validating its neighbours at half the step, {@link #refinements} times.
+ */
+public class SuccessiveHalvingStrategy implements SearchStrategy {
+    //~ Instance fields --------------------------------------------------------
+
+    private final double C_StartPower;
+
+    private final double C_StopPower;
+
+    private final double C_Step;
+
+    private final double G_StartPower;
+
+    private final double G_StopPower;
+
+    private final double G_Step;
+
+    /**
+     * Keep {@code 1 / eta} of the cells in every round,
+     * and validate them on {@code eta} times more samples, at least 2.
+     */
+    public int eta = 3;
+
+    /**
+     * Fraction of the samples used by the first round, in (0, 1].
+     */
+    public double minFraction = 1.0d / 9;
+
+    /**
+     * The number of folds of the rounds on part of the samples.
+     */
+    public int minFolds = 3;
+
+    /**
+     * The number of folds of the round on all samples and of the refinements.
+     */
+    public int numFolds = 10;
+
+    /**
+     * Times to refine the winner at half of the previous step.
+     */
+    public int refinements = 2;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Create a grid of powers, from start power (inclusive) to stop power (exclusive).
+     */
+    public SuccessiveHalvingStrategy(double C_StartPower, double C_StopPower, double C_Step,
+                                     double G_StartPower, double G_StopPower, double G_Step) {
+        this.C_StartPower = C_StartPower;
+        this.C_StopPower = C_StopPower;
+        this.C_Step = C_Step;
+        this.G_StartPower = G_StartPower;
+        this.G_StopPower = G_StopPower;
+        this.G_Step = G_Step;
+    }
+
+    /**
+     * The grid configured by the search fields of an {@link SVM}.
+     *
+     * @param svm the svm
+     */
+    public SuccessiveHalvingStrategy(SVM svm) {
+        this(svm.C_StartPower, svm.C_StopPower, svm.C_Step, svm.G_StartPower, svm.G_StopPower, svm.G_Step);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if {@link #eta} or {@link #minFraction} is out of range,
+     *                                  the rounds would never reach all samples
+     */
+    @Override
+    public Cell search(CellEvaluator evaluator) throws InterruptedException {
+        if (this.eta < 2) {
+            throw new IllegalArgumentException("eta must be at least 2: " + this.eta);
+        }
+        if (!(this.minFraction > 0.0d && this.minFraction <= 1.0d)) {
+            throw new IllegalArgumentException("minFraction must be in (0, 1]: " + this.minFraction);
+        }
+        List<Cell> cells = GridSearchStrategy.cells(this.C_StartPower, this.C_StopPower, this.C_Step,
+                this.G_StartPower, this.G_StopPower, this.G_Step);
+        if (cells.isEmpty()) {
+            return new Cell(this.C_StartPower, this.G_StartPower);
+        }
+
+        /* step 1: successive halving */
+        double fraction = this.minFraction;
+        double[] accuracies;
+        while (true) {
+            boolean full = fraction >= 1.0d - 1e-9;
+            accuracies = evaluator.crossValidate(cells, full ? this.numFolds : this.minFolds, full ? 1.0d : fraction);
+            if (full) {
+                break;
+            }
+            cells = promote(cells, accuracies, (cells.size() + this.eta - 1) / this.eta);
+            fraction *= this.eta;
+        }
+        int best = SearchStrategy.best(cells, accuracies);
+        Cell winner = cells.get(best < 0 ? 0 : best);
+        double winnerAccuracy = best < 0 ? 0.0d : accuracies[best];
+
+        /* step 2: coarse to fine */
+        double cStep = this.C_Step;
+        double gStep = this.G_Step;
+        for (int r = 0; r < this.refinements; r++) {
+            cStep /= 2;
+            gStep /= 2;
+
+            List<Cell> neighbours = new ArrayList<>();
+            for (int dc = -1; dc <= 1; dc++) {
+                for (int dg = -1; dg <= 1; dg++) {
+                    if (dc != 0 || dg != 0) {
+                        neighbours.add(new Cell(winner.powerOfC + dc * cStep, winner.powerOfG + dg * gStep));
+                    }
+                }
+            }
+            double[] neighbourAccuracies = evaluator.crossValidate(neighbours, this.numFolds, 1.0d);
+
+            // the winner goes first, so that it is kept on a tie of the same C
+            List<Cell> candidates = new ArrayList<>();
+            candidates.add(winner);
+            candidates.addAll(neighbours);
+            double[] candidateAccuracies = new double[candidates.size()];
+            candidateAccuracies[0] = winnerAccuracy;
+            System.arraycopy(neighbourAccuracies, 0, candidateAccuracies, 1, neighbourAccuracies.length);
+
+            best = SearchStrategy.best(candidates, candidateAccuracies);
+            if (best > 0) {
+                winner = candidates.get(best);
+                winnerAccuracy = candidateAccuracies[best];
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Keep the best cells, in their original order.
+     *
+     * @param cells      cells of this round
+     * @param accuracies accuracies of the cells
+     * @param keep       number of cells to keep
+     * @return the promoted cells
+     */
+    private static List<Cell> promote(List<Cell> cells, double[] accuracies, int keep) {
+        Integer[] order = new Integer[cells.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // higher accuracy first, then the smaller C, then the original order
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> -accuracies[i])
+                .thenComparingDouble(i -> cells.get(i).powerOfC)
+                .thenComparingInt(i -> i));
+
+        boolean[] kept = new boolean[cells.size()];
+        for (int i = 0; i < Math.max(1, keep); i++) {
+            kept[order[i]] = true;
+        }
+        List<Cell> promoted = new ArrayList<>();
+        for (int i = 0; i < kept.length; i++) {
+            if (kept[i]) {
+                promoted.add(cells.get(i));
+            }
+        }
+        return promoted;
+    }
+}
+
+// End SuccessiveHalvingStrategy.java
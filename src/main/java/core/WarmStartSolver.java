@@ -0,0 +1,487 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An SMO solver of the two class {@link svm_parameter#C_SVC} dual problem
+ * that starts from the solution of another model (alpha seeding).
+ * libsvm always starts from zero and does not expose its solver,
+ * so this is a port of its working set selection, update and rho calculation,
+ * without shrinking.
+ */
+final class WarmStartSolver {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmStartSolver.class);
+
+    private static final double TAU = 1e-12;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final svm_parameter param;
+
+    private final svm_node[][] x;
+
+    /**
+     * +1 for the first label of the problem, -1 for the other.
+     */
+    private final byte[] y;
+
+    private final double[] alpha;
+
+    /**
+     * Gradient of the dual objective.
+     */
+    private final double[] G;
+
+    /**
+     * Diagonal of the kernel matrix.
+     */
+    private final double[] QD;
+
+    /**
+     * Squared norms of the rows, only for {@link svm_parameter#RBF}.
+     */
+    private final double[] xSquare;
+
+    private final double Cp;
+
+    private final double Cn;
+
+    /**
+     * Recently used rows of Q, bounded by {@link svm_parameter#cache_size}.
+     */
+    private final Map<Integer, double[]> cache;
+
+    //~ Constructors -----------------------------------------------------------
+
+    private WarmStartSolver(svm_problem problem, svm_parameter param, byte[] y, double Cp, double Cn) {
+        this.param = param;
+        this.x = problem.x;
+        this.y = y;
+        this.Cp = Cp;
+        this.Cn = Cn;
+
+        int l = problem.l;
+        this.alpha = new double[l];
+        this.G = new double[l];
+        this.QD = new double[l];
+        if (param.kernel_type == svm_parameter.RBF) {
+            this.xSquare = new double[l];
+            for (int i = 0; i < l; i++) {
+                this.xSquare[i] = dot(this.x[i], this.x[i]);
+            }
+        } else {
+            this.xSquare = null;
+        }
+        for (int i = 0; i < l; i++) {
+            this.QD[i] = kernel(i, i);
+        }
+
+        final int cacheRows = (int) Math.max(2, Math.min(l, param.cache_size * (1 << 20) / (8.0d * l)));
+        this.cache = new LinkedHashMap<Integer, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+                return size() > cacheRows;
+            }
+        };
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Train a model starting from the dual solution of {@code seed}.
+     * The seed must have been trained on the same problem, usually with a smaller C.
+     * Its alphas are still feasible for a larger C and are used as they are,
+     * for a smaller C they are scaled down by the ratio of the two C values.
+     * Falls back to a cold {@link svm#svm_train} when the seed cannot be used,
+     * i.e. it is null, not a two class C_SVC model or the problem has not two labels.
+     *
+     * @param problem the training problem, already checked by {@link svm#svm_check_parameter}
+     * @param param   the svm parameter
+     * @param seed    model of a previous solution, may be null
+     * @return the trained model
+     */
+    static svm_model train(svm_problem problem, svm_parameter param, svm_model seed) {
+        if (seed == null || seed.sv_indices == null || seed.nr_class != 2
+                || param.svm_type != svm_parameter.C_SVC || seed.param.svm_type != svm_parameter.C_SVC) {
+            return svm.svm_train(problem, param);
+        }
+
+        /* step 1: labels in the order of first appearance, same as libsvm */
+        double label0 = problem.y[0];
+        double label1 = label0;
+        for (int i = 1; i < problem.l; i++) {
+            if (problem.y[i] != label0) {
+                label1 = problem.y[i];
+                break;
+            }
+        }
+        if (label0 == label1 || seed.label[0] != (int) label0 || seed.label[1] != (int) label1) {
+            return svm.svm_train(problem, param);
+        }
+        byte[] y = new byte[problem.l];
+        for (int i = 0; i < problem.l; i++) {
+            y[i] = (byte) (problem.y[i] == label0 ? 1 : -1);
+        }
+
+        WarmStartSolver solver = new WarmStartSolver(problem, param,
+                y, param.C * weight(param, (int) label0), param.C * weight(param, (int) label1));
+
+        /* step 2: seed the alphas, scale them down only if C gets smaller */
+        double ratio = Math.min(1.0d, param.C / seed.param.C);
+        for (int k = 0; k < seed.l; k++) {
+            int i = seed.sv_indices[k] - 1;
+            solver.alpha[i] = Math.min(Math.abs(seed.sv_coef[0][k]) * ratio, solver.C(i));
+        }
+
+        /* step 3: solve and build the model */
+        solver.solve();
+        return solver.model(problem, label0, label1);
+    }
+
+    private static double weight(svm_parameter param, int label) {
+        for (int i = 0; i < param.nr_weight; i++) {
+            if (param.weight_label[i] == label) {
+                return param.weight[i];
+            }
+        }
+        return 1.0d;
+    }
+
+    private double C(int i) {
+        return this.y[i] > 0 ? this.Cp : this.Cn;
+    }
+
+    private boolean isUpperBound(int i) {
+        return this.alpha[i] >= C(i);
+    }
+
+    private boolean isLowerBound(int i) {
+        return this.alpha[i] <= 0;
+    }
+
+    private void solve() {
+        int l = this.alpha.length;
+
+        /* initialize the gradient from the seeded alphas */
+        for (int i = 0; i < l; i++) {
+            this.G[i] = -1.0d;
+        }
+        for (int i = 0; i < l; i++) {
+            if (!isLowerBound(i)) {
+                double[] Q_i = row(i);
+                for (int j = 0; j < l; j++) {
+                    this.G[j] += this.alpha[i] * Q_i[j];
+                }
+            }
+        }
+
+        int maxIter = Math.max(10000000, l > Integer.MAX_VALUE / 100 ? Integer.MAX_VALUE : 100 * l);
+        int iter = 0;
+        int[] working = new int[2];
+        while (iter < maxIter) {
+            if (selectWorkingSet(working)) {
+                break;
+            }
+            iter++;
+            update(working[0], working[1]);
+        }
+        if (iter >= maxIter) {
+            LOGGER.warn("reaching max number of iterations {}", maxIter);
+        }
+    }
+
+    /**
+     * Second order working set selection of libsvm.
+     *
+     * @param working filled with the selected i and j
+     * @return true if already optimal
+     */
+    private boolean selectWorkingSet(int[] working) {
+        int l = this.alpha.length;
+
+        double Gmax = Double.NEGATIVE_INFINITY;
+        int Gmax_idx = -1;
+        for (int t = 0; t < l; t++) {
+            if (this.y[t] == 1) {
+                if (!isUpperBound(t) && -this.G[t] >= Gmax) {
+                    Gmax = -this.G[t];
+                    Gmax_idx = t;
+                }
+            } else {
+                if (!isLowerBound(t) && this.G[t] >= Gmax) {
+                    Gmax = this.G[t];
+                    Gmax_idx = t;
+                }
+            }
+        }
+
+        int i = Gmax_idx;
+        double[] Q_i = i == -1 ? null : row(i);
+
+        double Gmax2 = Double.NEGATIVE_INFINITY;
+        int Gmin_idx = -1;
+        double obj_diff_min = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < l; j++) {
+            if (this.y[j] == 1) {
+                if (!isLowerBound(j)) {
+                    double grad_diff = Gmax + this.G[j];
+                    if (this.G[j] >= Gmax2) {
+                        Gmax2 = this.G[j];
+                    }
+                    if (grad_diff > 0) {
+                        double quad_coef = this.QD[i] + this.QD[j] - 2.0 * this.y[i] * Q_i[j];
+                        double obj_diff = -(grad_diff * grad_diff) / (quad_coef > 0 ? quad_coef : TAU);
+                        if (obj_diff <= obj_diff_min) {
+                            Gmin_idx = j;
+                            obj_diff_min = obj_diff;
+                        }
+                    }
+                }
+            } else {
+                if (!isUpperBound(j)) {
+                    double grad_diff = Gmax - this.G[j];
+                    if (-this.G[j] >= Gmax2) {
+                        Gmax2 = -this.G[j];
+                    }
+                    if (grad_diff > 0) {
+                        double quad_coef = this.QD[i] + this.QD[j] + 2.0 * this.y[i] * Q_i[j];
+                        double obj_diff = -(grad_diff * grad_diff) / (quad_coef > 0 ? quad_coef : TAU);
+                        if (obj_diff <= obj_diff_min) {
+                            Gmin_idx = j;
+                            obj_diff_min = obj_diff;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (Gmax + Gmax2 < this.param.eps || Gmin_idx == -1) {
+            return true;
+        }
+        working[0] = Gmax_idx;
+        working[1] = Gmin_idx;
+        return false;
+    }
+
+    private void update(int i, int j) {
+        double[] Q_i = row(i);
+        double[] Q_j = row(j);
+
+        double C_i = C(i);
+        double C_j = C(j);
+
+        double old_alpha_i = this.alpha[i];
+        double old_alpha_j = this.alpha[j];
+
+        if (this.y[i] != this.y[j]) {
+            double quad_coef = this.QD[i] + this.QD[j] + 2 * Q_i[j];
+            if (quad_coef <= 0) {
+                quad_coef = TAU;
+            }
+            double delta = (-this.G[i] - this.G[j]) / quad_coef;
+            double diff = this.alpha[i] - this.alpha[j];
+            this.alpha[i] += delta;
+            this.alpha[j] += delta;
+
+            if (diff > 0) {
+                if (this.alpha[j] < 0) {
+                    this.alpha[j] = 0;
+                    this.alpha[i] = diff;
+                }
+            } else {
+                if (this.alpha[i] < 0) {
+                    this.alpha[i] = 0;
+                    this.alpha[j] = -diff;
+                }
+            }
+            if (diff > C_i - C_j) {
+                if (this.alpha[i] > C_i) {
+                    this.alpha[i] = C_i;
+                    this.alpha[j] = C_i - diff;
+                }
+            } else {
+                if (this.alpha[j] > C_j) {
+                    this.alpha[j] = C_j;
+                    this.alpha[i] = C_j + diff;
+                }
+            }
+        } else {
+            double quad_coef = this.QD[i] + this.QD[j] - 2 * Q_i[j];
+            if (quad_coef <= 0) {
+                quad_coef = TAU;
+            }
+            double delta = (this.G[i] - this.G[j]) / quad_coef;
+            double sum = this.alpha[i] + this.alpha[j];
+            this.alpha[i] -= delta;
+            this.alpha[j] += delta;
+
+            if (sum > C_i) {
+                if (this.alpha[i] > C_i) {
+                    this.alpha[i] = C_i;
+                    this.alpha[j] = sum - C_i;
+                }
+            } else {
+                if (this.alpha[j] < 0) {
+                    this.alpha[j] = 0;
+                    this.alpha[i] = sum;
+                }
+            }
+            if (sum > C_j) {
+                if (this.alpha[j] > C_j) {
+                    this.alpha[j] = C_j;
+                    this.alpha[i] = sum - C_j;
+                }
+            } else {
+                if (this.alpha[i] < 0) {
+                    this.alpha[i] = 0;
+                    this.alpha[j] = sum;
+                }
+            }
+        }
+
+        double delta_alpha_i = this.alpha[i] - old_alpha_i;
+        double delta_alpha_j = this.alpha[j] - old_alpha_j;
+        for (int k = 0; k < this.G.length; k++) {
+            this.G[k] += Q_i[k] * delta_alpha_i + Q_j[k] * delta_alpha_j;
+        }
+    }
+
+    private double calculateRho() {
+        double ub = Double.POSITIVE_INFINITY;
+        double lb = Double.NEGATIVE_INFINITY;
+        double sum_free = 0;
+        int nr_free = 0;
+        for (int i = 0; i < this.alpha.length; i++) {
+            double yG = this.y[i] * this.G[i];
+            if (isUpperBound(i)) {
+                if (this.y[i] == -1) {
+                    ub = Math.min(ub, yG);
+                } else {
+                    lb = Math.max(lb, yG);
+                }
+            } else if (isLowerBound(i)) {
+                if (this.y[i] == 1) {
+                    ub = Math.min(ub, yG);
+                } else {
+                    lb = Math.max(lb, yG);
+                }
+            } else {
+                ++nr_free;
+                sum_free += yG;
+            }
+        }
+        return nr_free > 0 ? sum_free / nr_free : (ub + lb) / 2;
+    }
+
+    /**
+     * Build a model the same way as libsvm does,
+     * support vectors of the first label come first.
+     */
+    private svm_model model(svm_problem problem, double label0, double label1) {
+        int[] nSV = new int[2];
+        for (int i = 0; i < this.alpha.length; i++) {
+            if (this.alpha[i] > 0) {
+                nSV[this.y[i] > 0 ? 0 : 1]++;
+            }
+        }
+
+        svm_model model = new svm_model();
+        model.param = this.param;
+        model.nr_class = 2;
+        model.l = nSV[0] + nSV[1];
+        model.label = new int[]{(int) label0, (int) label1};
+        model.nSV = nSV;
+        model.rho = new double[]{calculateRho()};
+        model.SV = new svm_node[model.l][];
+        model.sv_coef = new double[1][model.l];
+        model.sv_indices = new int[model.l];
+
+        int p = 0;
+        for (int cls = 1; cls >= -1; cls -= 2) {
+            for (int i = 0; i < this.alpha.length; i++) {
+                if (this.alpha[i] > 0 && this.y[i] == cls) {
+                    model.SV[p] = problem.x[i];
+                    model.sv_coef[0][p] = this.y[i] * this.alpha[i];
+                    model.sv_indices[p] = i + 1;
+                    p++;
+                }
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Row i of Q, where Q[i][j] = y[i] * y[j] * K(i, j).
+     */
+    private double[] row(int i) {
+        double[] Q_i = this.cache.get(i);
+        if (Q_i == null) {
+            Q_i = new double[this.alpha.length];
+            for (int j = 0; j < Q_i.length; j++) {
+                Q_i[j] = this.y[i] * this.y[j] * kernel(i, j);
+            }
+            this.cache.put(i, Q_i);
+        }
+        return Q_i;
+    }
+
+    private double kernel(int i, int j) {
+        switch (this.param.kernel_type) {
+            case svm_parameter.LINEAR:
+                return dot(this.x[i], this.x[j]);
+            case svm_parameter.POLY:
+                return Math.pow(this.param.gamma * dot(this.x[i], this.x[j]) + this.param.coef0, this.param.degree);
+            case svm_parameter.RBF:
+                return Math.exp(-this.param.gamma
+                        * (this.xSquare[i] + this.xSquare[j] - 2 * dot(this.x[i], this.x[j])));
+            case svm_parameter.SIGMOID:
+                return Math.tanh(this.param.gamma * dot(this.x[i], this.x[j]) + this.param.coef0);
+            case svm_parameter.PRECOMPUTED:
+                return this.x[i][(int) this.x[j][0].value].value;
+            default:
+                throw new IllegalArgumentException("unknown kernel type: " + this.param.kernel_type);
+        }
+    }
+
+    private static double dot(svm_node[] x, svm_node[] y) {
+        double sum = 0;
+        int i = 0;
+        int j = 0;
+        while (i < x.length && j < y.length) {
+            if (x[i].index == y[j].index) {
+                sum += x[i++].value * y[j++].value;
+            } else if (x[i].index > y[j].index) {
+                ++j;
+            } else {
+                ++i;
+            }
+        }
+        return sum;
+    }
+}
+
+// End WarmStartSolver.java
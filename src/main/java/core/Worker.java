@@ -0,0 +1,284 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import data.DatasetFile;
+import data.Folds;
+import libsvm.svm_parameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A worker process of a distributed {@link SVM#search}, see {@link SVM#workers}.
+ * <p>
+ * Every connection of the coordinator asks for one cell at a time:
+ * the path of a binary dataset copy (see {@link DatasetFile}), the number of folds and the svm parameter.
+ * The worker answers with the hit num of every fold.
+ * Only datasets under the shared directory are read. The folds of the last few datasets are kept
+ * for the following cells, those not used for a while are dropped.
+ * <p>
+ * The connections are not authenticated, so a worker listens on the loopback address
+ * unless another bind address is given explicitly.
+ * <p>
+ * Start with {@code java -cp <classpath> core.Worker [port [sharedDirectory [bindAddress]]]},
+ * the port actually listened on is printed as the first line.
+ */
+public final class Worker {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Worker.class);
+
+    /**
+     * Prefix of the line telling the port listened on.
+     */
+    static final String PORT_PREFIX = "worker listening on port ";
+
+    static final int BYE = 0;
+
+    static final int VALIDATE = 1;
+
+    static final int OK = 0;
+
+    static final int FAILED = 1;
+
+    /**
+     * The number of datasets whose folds are kept.
+     */
+    private static final int CACHED_DATASETS = 4;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * Canonical directory the datasets are read from.
+     */
+    private final Path sharedDirectory;
+
+    /**
+     * Folds of every dataset path and number of folds.
+     */
+    private final Cache<String, Folds> folds = CacheBuilder.newBuilder()
+            .maximumSize(CACHED_DATASETS)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Listen on the loopback address, reading datasets from the temporary directory.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @throws IOException if failed to listen
+     */
+    public Worker(int port) throws IOException {
+        this(port, System.getProperty("java.io.tmpdir"), InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * @param port            port to listen on, 0 for any free port
+     * @param sharedDirectory directory of the binary dataset copies, see {@link SVM#sharedDirectory}
+     * @param bindAddress     address to listen on, other than the loopback one only to serve other hosts
+     * @throws IOException if failed to listen
+     */
+    public Worker(int port, String sharedDirectory, InetAddress bindAddress) throws IOException {
+        this.sharedDirectory = new File(sharedDirectory).getCanonicalFile().toPath();
+        this.serverSocket = new ServerSocket(port, 50, bindAddress);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    public static void main(String[] args) throws IOException {
+        LibsvmOutput.install();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        String sharedDirectory = args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir");
+        InetAddress bindAddress = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        Worker worker = new Worker(port, sharedDirectory, bindAddress);
+        System.out.println(PORT_PREFIX + worker.getPort());
+        System.out.flush();
+        worker.serve();
+    }
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Serve every connection in its own thread, until closed.
+     */
+    public void serve() {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                Thread thread = new Thread(() -> handle(socket), "worker-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!this.serverSocket.isClosed()) {
+                    LOGGER.error("failed to accept connection", e);
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        this.serverSocket.close();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            while (in.readInt() == VALIDATE) {
+                String path = in.readUTF();
+                int numFolds = in.readInt();
+                svm_parameter param = readParameter(in);
+                try {
+                    int[] hits = validate(path, numFolds, param);
+                    out.writeInt(OK);
+                    out.writeInt(hits.length);
+                    for (int hit : hits) {
+                        out.writeInt(hit);
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("failed to validate C: {}, gamma: {}", param.C, param.gamma, e);
+                    out.writeInt(FAILED);
+                    out.writeUTF(String.valueOf(e));
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // the coordinator is gone
+        } catch (IOException e) {
+            LOGGER.error("connection failed", e);
+        }
+    }
+
+    /**
+     * Cross validate one cell.
+     *
+     * @param path     path of the binary dataset copy, under the shared directory
+     * @param numFolds the number n of n fold validation
+     * @param param    the svm parameter of the cell
+     * @return hit num of every fold
+     */
+    private int[] validate(String path, int numFolds, svm_parameter param) {
+        if (numFolds < 2) {
+            throw new IllegalArgumentException("illegal number of folds: " + numFolds);
+        }
+        Folds folds;
+        try {
+            String file = sharedFile(path);
+            folds = this.folds.get(file + '#' + numFolds, () -> {
+                Folds read = new Folds(DatasetFile.read(file), numFolds);
+                LOGGER.info("{} samples mapped from {}", read.size(), file);
+                return read;
+            });
+        } catch (IOException | ExecutionException e) {
+            throw new IllegalArgumentException("failed to read " + path, e);
+        } catch (UncheckedExecutionException e) {
+            throw new IllegalArgumentException("failed to read " + path, e.getCause());
+        }
+        int[] hits = new int[numFolds];
+        for (int fold = 0; fold < numFolds; fold++) {
+            hits[fold] = CrossValidator.validFold(folds, param, fold, null);
+        }
+        return hits;
+    }
+
+    /**
+     * @return the canonical path of a file, if it is under the shared directory
+     * @throws IllegalArgumentException if the file is elsewhere
+     */
+    private String sharedFile(String path) throws IOException {
+        Path file = new File(path).getCanonicalFile().toPath();
+        if (!file.startsWith(this.sharedDirectory)) {
+            throw new IllegalArgumentException(path + " is not under " + this.sharedDirectory);
+        }
+        return file.toString();
+    }
+
+    /**
+     * Write the fields of an svm parameter libsvm trains with.
+     */
+    static void writeParameter(DataOutput out, svm_parameter param) throws IOException {
+        out.writeInt(param.svm_type);
+        out.writeInt(param.kernel_type);
+        out.writeInt(param.degree);
+        out.writeDouble(param.gamma);
+        out.writeDouble(param.coef0);
+        out.writeDouble(param.cache_size);
+        out.writeDouble(param.eps);
+        out.writeDouble(param.C);
+        out.writeDouble(param.nu);
+        out.writeDouble(param.p);
+        out.writeInt(param.shrinking);
+        out.writeInt(param.probability);
+        out.writeInt(param.nr_weight);
+        for (int i = 0; i < param.nr_weight; i++) {
+            out.writeInt(param.weight_label[i]);
+            out.writeDouble(param.weight[i]);
+        }
+    }
+
+    /**
+     * Read an svm parameter written by {@link #writeParameter}.
+     */
+    static svm_parameter readParameter(DataInput in) throws IOException {
+        svm_parameter param = new svm_parameter();
+        param.svm_type = in.readInt();
+        param.kernel_type = in.readInt();
+        param.degree = in.readInt();
+        param.gamma = in.readDouble();
+        param.coef0 = in.readDouble();
+        param.cache_size = in.readDouble();
+        param.eps = in.readDouble();
+        param.C = in.readDouble();
+        param.nu = in.readDouble();
+        param.p = in.readDouble();
+        param.shrinking = in.readInt();
+        param.probability = in.readInt();
+        param.nr_weight = in.readInt();
+        if (param.nr_weight < 0 || param.nr_weight > 1024) {
+            throw new IOException("illegal number of weights: " + param.nr_weight);
+        }
+        param.weight_label = new int[param.nr_weight];
+        param.weight = new double[param.nr_weight];
+        for (int i = 0; i < param.nr_weight; i++) {
+            param.weight_label[i] = in.readInt();
+            param.weight[i] = in.readDouble();
+        }
+        return param;
+    }
+}
+
+// End Worker.java
@@ -19,6 +19,9 @@ import util.EdMath;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Iterator;
 
@@ -62,6 +65,40 @@ public class Dataset extends ArrayList<Sample> {
         }
     }
 
+    /**
+     * A SHA-256 fingerprint of this dataset.
+     * Covers the scaling state, the sample order, the labels and the current feature values,
+     * so a dataset scaled differently gets a different fingerprint.
+     *
+     * @return the fingerprint in hex
+     */
+    public String fingerprint() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putInt(this.featureNum).putInt(this.size()).putInt(this.isScaled ? 1 : 0);
+        digest.update(buffer.array(), 0, buffer.position());
+        for (Sample sample : this) {
+            buffer.clear();
+            buffer.putDouble(sample.getLabel()).putInt(sample.size());
+            digest.update(buffer.array(), 0, buffer.position());
+            for (svm_node node : sample) {
+                buffer.clear();
+                buffer.putInt(node.index).putDouble(node.value);
+                digest.update(buffer.array(), 0, buffer.position());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
     /**
      * Linear scale training data so that all features fit in [-1.0d, 1.0d]
      *
@@ -204,6 +241,10 @@ public class Dataset extends ArrayList<Sample> {
         return this.isScaled;
     }
 
+    void setScaled(boolean scaled) {
+        this.isScaled = scaled;
+    }
+
     public boolean isTraining() {
         return this.isTraining;
     }
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package data;
+
+import libsvm.svm_node;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary copy of a {@link Dataset}, to be memory mapped instead of parsed.
+ * <p>
+ * Layout, big endian:
+ * magic, version, feature number, scaled flag, sample number, then every sample as
+ * label, node number and (index, value) of every node.
+ * The file has to be smaller than 2GB.
+ */
+public final class DatasetFile {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final int MAGIC = 0x53564d44;
+
+    private static final int VERSION = 1;
+
+    //~ Constructors -----------------------------------------------------------
+
+    private DatasetFile() {
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Write a binary copy of a dataset.
+     *
+     * @param dataset  the dataset
+     * @param filename file to write
+     * @throws IOException if failed to write
+     */
+    public static void write(Dataset dataset, String filename) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(filename);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(dataset.getFeatureNum());
+            dos.writeInt(dataset.isScaled() ? 1 : 0);
+            dos.writeInt(dataset.size());
+            for (Sample sample : dataset) {
+                dos.writeDouble(sample.getLabel());
+                dos.writeInt(sample.size());
+                for (svm_node node : sample) {
+                    dos.writeInt(node.index);
+                    dos.writeDouble(node.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Memory map a binary copy and build the dataset from it.
+     *
+     * @param filename file written by {@link #write}
+     * @return the dataset
+     * @throws IOException if failed to read, or the file is not a binary copy
+     */
+    public static Dataset read(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is too large to map");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(filename + " is not a binary dataset");
+            }
+            Dataset dataset = new Dataset();
+            dataset.setFeatureNum(buffer.getInt());
+            dataset.setScaled(buffer.getInt() != 0);
+            int size = buffer.getInt();
+            dataset.ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                Sample sample = new Sample();
+                sample.setLabel(buffer.getDouble());
+                int nodes = buffer.getInt();
+                sample.ensureCapacity(nodes);
+                for (int j = 0; j < nodes; j++) {
+                    svm_node node = new svm_node();
+                    node.index = buffer.getInt();
+                    node.value = buffer.getDouble();
+                    sample.add(node);
+                }
+                dataset.add(sample);
+            }
+            return dataset;
+        }
+    }
+}
+
+// End DatasetFile.java
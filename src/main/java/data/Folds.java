@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package data;
+
+import libsvm.svm_node;
+import libsvm.svm_problem;
+
+/**
+ * Index based n fold views over a {@link Dataset}.
+ * The feature rows are the {@code svm_node}s of the samples themselves,
+ * they are shared by all the folds and never copied.
+ * The dataset should not be modified while the folds are in use.
+ */
+public class Folds {
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * Feature rows of all samples, in dataset order.
+     */
+    private final svm_node[][] x;
+
+    /**
+     * Labels of all samples, in dataset order.
+     */
+    private final double[] y;
+
+    private final int numFolds;
+
+    /**
+     * The training problem of every fold, built once and reused by all
+     * the parameter sets, libsvm only reads them.
+     */
+    private final svm_problem[] trainProblems;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Split the dataset into exactly {@code numFolds} contiguous folds,
+     * the sizes of which differ by at most one.
+     *
+     * @param dataset  the dataset to split
+     * @param numFolds the number n of n fold validation
+     */
+    public Folds(Dataset dataset, int numFolds) {
+        this(featureRows(dataset), labels(dataset), numFolds);
+    }
+
+    /**
+     * Split prepared feature rows into exactly {@code numFolds} contiguous folds.
+     * The rows are used as they are, e.g. rows of a precomputed kernel.
+     *
+     * @param x        feature rows of all samples
+     * @param y        labels of all samples
+     * @param numFolds the number n of n fold validation
+     */
+    public Folds(svm_node[][] x, double[] y, int numFolds) {
+        this.numFolds = numFolds;
+        this.x = x;
+        this.y = y;
+
+        this.trainProblems = new svm_problem[numFolds];
+        for (int fold = 0; fold < numFolds; fold++) {
+            int vsStart = start(fold);
+            int vsEnd = end(fold);
+
+            svm_problem problem = new svm_problem();
+            problem.l = this.x.length - (vsEnd - vsStart);
+            problem.x = new svm_node[problem.l][];
+            problem.y = new double[problem.l];
+            System.arraycopy(this.x, 0, problem.x, 0, vsStart);
+            System.arraycopy(this.y, 0, problem.y, 0, vsStart);
+            System.arraycopy(this.x, vsEnd, problem.x, vsStart, this.x.length - vsEnd);
+            System.arraycopy(this.y, vsEnd, problem.y, vsStart, this.y.length - vsEnd);
+            this.trainProblems[fold] = problem;
+        }
+    }
+
+    private static svm_node[][] featureRows(Dataset dataset) {
+        svm_node[][] x = new svm_node[dataset.size()][];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = dataset.get(i).getFeatureArray();
+        }
+        return x;
+    }
+
+    private static double[] labels(Dataset dataset) {
+        double[] y = new double[dataset.size()];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = dataset.get(i).getLabel();
+        }
+        return y;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Start index of the valid set of a fold.
+     *
+     * @param fold index of the fold
+     * @return the first sample index of {@code fold}
+     */
+    public int start(int fold) {
+        return (int) ((long) this.x.length * fold / this.numFolds);
+    }
+
+    /**
+     * End index (exclusive) of the valid set of a fold.
+     *
+     * @param fold index of the fold
+     * @return the start index of the next fold
+     */
+    public int end(int fold) {
+        return start(fold + 1);
+    }
+
+    /**
+     * The training problem of a fold, consists of all samples out of the fold.
+     * Shared by all callers, do not modify it.
+     *
+     * @param fold index of the fold
+     * @return the training problem
+     */
+    public svm_problem trainProblem(int fold) {
+        return this.trainProblems[fold];
+    }
+
+    /**
+     * Feature row of a sample, shared with the training problems.
+     *
+     * @param i sample index in the dataset
+     * @return the features of sample {@code i}
+     */
+    public svm_node[] row(int i) {
+        return this.x[i];
+    }
+
+    public double label(int i) {
+        return this.y[i];
+    }
+
+    public int size() {
+        return this.x.length;
+    }
+
+    public int getNumFolds() {
+        return this.numFolds;
+    }
+}
+
+// End Folds.java
@@ -21,6 +21,11 @@ import java.io.Serializable;
 public class LinearScaleParam implements Serializable {
     //~ Static fields/initializers ---------------------------------------------
 
+    /**
+     * Computed from the original class, so that saved parameters still load.
+     */
+    private static final long serialVersionUID = 799460389383300736L;
+
     //~ Instance fields --------------------------------------------------------
 
     /**
@@ -47,7 +52,7 @@ public class LinearScaleParam implements Serializable {
         this.param[0][0] = lowerBound;
     }
 
-    double getLowerBound() {
+    public double getLowerBound() {
         return this.param[0][0];
     }
 
@@ -55,7 +60,7 @@ public class LinearScaleParam implements Serializable {
         this.param[0][1] = upperBound;
     }
 
-    double getUpperBound() {
+    public double getUpperBound() {
         return this.param[0][1];
     }
 
@@ -63,7 +68,7 @@ public class LinearScaleParam implements Serializable {
         this.param[i + 1][0] = featureMin;
     }
 
-    double getFeatureMin(int i) {
+    public double getFeatureMin(int i) {
         return this.param[i + 1][0];
     }
 
@@ -84,13 +89,32 @@ public class LinearScaleParam implements Serializable {
         return this.param[i + 1][1];
     }
 
-    double getBoundarySpan() {
+    public double getBoundarySpan() {
         return this.param[0][1] - this.param[0][0];
     }
 
-    double getFeatureSpan(int i) {
+    public double getFeatureSpan(int i) {
         return this.param[i + 1][1] - this.param[i + 1][0];
     }
+
+    public int getFeatureNum() {
+        return this.param.length - 1;
+    }
+
+    /**
+     * Scale a dense feature row in place, the same way as {@link Dataset#linearScaleFrom} scales a sample.
+     *
+     * @param row the dense feature row, features beyond this parameter are left as they are
+     */
+    public void scale(double[] row) {
+        int featureNum = Math.min(row.length, getFeatureNum());
+        for (int i = 0; i < featureNum; i++) {
+            row[i] = (row[i] - getFeatureMin(i))
+                    * getBoundarySpan()
+                    / getFeatureSpan(i)
+                    + getLowerBound();
+        }
+    }
 }
 
 // End LinearScaleParam.java
@@ -93,6 +93,26 @@ public class SVMFileReader extends EdAbstractFileReader<Dataset> {
             return null;
         }
     }
+
+    /**
+     * Parse a line of the same format as {@link #read} into a dense feature row,
+     * for reading a file line by line instead of as a whole.
+     *
+     * @param line a line of a data file
+     * @param row  the row to fill, extra features of the line are ignored and missing ones are 0
+     * @return the label of the line
+     */
+    public double parse(String line, double[] row) {
+        String[] contents = line.split(seperator);
+        int featureNum = Math.min(row.length, contents.length - 1);
+        for (int i = 0; i < featureNum; i++) {
+            row[i] = stod(contents[i + 1]);
+        }
+        for (int i = featureNum; i < row.length; i++) {
+            row[i] = 0.0d;
+        }
+        return stod(contents[0]);
+    }
 }
 
 // End SVMFileReader.java
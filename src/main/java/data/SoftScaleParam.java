@@ -21,6 +21,11 @@ import java.io.Serializable;
 public class SoftScaleParam implements Serializable {
     //~ Static fields/initializers ---------------------------------------------
 
+    /**
+     * Computed from the original class, so that saved parameters still load.
+     */
+    private static final long serialVersionUID = 7575728631212513710L;
+
     //~ Instance fields --------------------------------------------------------
 
     /**
@@ -42,7 +47,7 @@ public class SoftScaleParam implements Serializable {
         this.param[i][0] = value;
     }
 
-    double getMean(int i) {
+    public double getMean(int i) {
         return this.param[i][0];
     }
 
@@ -50,9 +55,27 @@ public class SoftScaleParam implements Serializable {
         this.param[i][1] = value;
     }
 
-    double getSD(int i) {
+    public double getSD(int i) {
         return this.param[i][1];
     }
+
+    public int getFeatureNum() {
+        return this.param.length;
+    }
+
+    /**
+     * Scale a dense feature row in place, the same way as {@link Dataset#softScaleFrom} scales a sample.
+     *
+     * @param row the dense feature row, features beyond this parameter are left as they are
+     */
+    public void scale(double[] row) {
+        int featureNum = Math.min(row.length, getFeatureNum());
+        for (int i = 0; i < featureNum; i++) {
+            row[i] = (row[i] - getMean(i))
+                    / getSD(i)
+                    / 2;
+        }
+    }
 }
 
 // End LinearScaleParam.java
@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.Dataset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Predicts many rows at a time.
+ * <p>
+ * The rows are split into tasks run on a {@link ForkJoinPool},
+ * every task converts and predicts its rows block by block,
+ * see {@link CompiledModel#decisionValues(double[][], int, double[][])}.
+ */
+public final class BatchPredictor {
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * The number of rows predicted together.
+     */
+    static final int BLOCK_SIZE = 64;
+
+    /**
+     * The number of rows of a task.
+     */
+    private static final int TASK_SIZE = 16 * BLOCK_SIZE;
+
+    private static final PredictionMetrics.Timer BATCH_TIMER = PredictionMetrics.timer("batch.predict");
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final ForkJoinPool pool;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Predict on the common pool.
+     */
+    public BatchPredictor() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool to predict on
+     */
+    public BatchPredictor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Predict every sample of a dataset.
+     *
+     * @param model the model
+     * @param data  the samples, scaled as the training set
+     * @return the predicted labels, in the same order
+     */
+    public double[] predictBatch(CompiledModel model, Dataset data) {
+        double[] labels = new double[data.size()];
+        run(model, data.size(), (from, to) -> {
+            double[][] decValues = predictBlocks(model, data, null, from, to);
+            for (int r = from; r < to; r++) {
+                labels[r] = model.decide(decValues[r - from]);
+            }
+        });
+        return labels;
+    }
+
+    /**
+     * The decision values of every sample of a dataset.
+     *
+     * @param model the model
+     * @param data  the samples, scaled as the training set
+     * @return the decision values of every sample, see {@link CompiledModel#decisionValues(double[], double[])}
+     */
+    public double[][] decisionValuesBatch(CompiledModel model, Dataset data) {
+        double[][] decValues = new double[data.size()][];
+        run(model, data.size(), (from, to) -> System.arraycopy(predictBlocks(model, data, null, from, to), 0,
+                decValues, from, to - from));
+        return decValues;
+    }
+
+    /**
+     * Predict dense feature rows.
+     *
+     * @param model the model
+     * @param rows  the dense feature rows
+     * @return the predicted labels, in the same order
+     */
+    public double[] predictBatch(CompiledModel model, double[][] rows) {
+        double[] labels = new double[rows.length];
+        run(model, rows.length, (from, to) -> {
+            double[][] decValues = predictBlocks(model, null, rows, from, to);
+            for (int r = from; r < to; r++) {
+                labels[r] = model.decide(decValues[r - from]);
+            }
+        });
+        return labels;
+    }
+
+    /**
+     * The decision values of dense feature rows.
+     *
+     * @param model the model
+     * @param rows  the dense feature rows
+     * @return the decision values of every row
+     */
+    public double[][] decisionValuesBatch(CompiledModel model, double[][] rows) {
+        double[][] decValues = new double[rows.length][];
+        run(model, rows.length, (from, to) -> System.arraycopy(predictBlocks(model, null, rows, from, to), 0,
+                decValues, from, to - from));
+        return decValues;
+    }
+
+    /**
+     * {@link #run(int, Range)} timed as one call of {@code batch.predict} if the metrics are on.
+     */
+    private void run(CompiledModel model, int size, Range range) {
+        if (!PredictionMetrics.isEnabled()) {
+            run(size, range);
+            return;
+        }
+        long start = System.nanoTime();
+        run(size, range);
+        BATCH_TIMER.record(System.nanoTime() - start, (long) size * model.kernelsPerRow());
+    }
+
+    /**
+     * Split {@code [0, size)} into tasks and wait for all of them.
+     */
+    void run(int size, Range range) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += TASK_SIZE) {
+            final int start = from;
+            final int end = Math.min(size, from + TASK_SIZE);
+            tasks.add(ForkJoinTask.adapt(() -> range.run(start, end)));
+        }
+        if (tasks.size() == 1) {
+            // not worth a hop to the pool
+            tasks.get(0).invoke();
+        } else if (!tasks.isEmpty()) {
+            this.pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+    }
+
+    /**
+     * The decision values of rows {@code [from, to)}, taken from the dataset if not null, else from the rows.
+     */
+    private static double[][] predictBlocks(CompiledModel model, Dataset data, double[][] rows, int from, int to) {
+        double[][] decValues = new double[to - from][model.getDecisionValueNum()];
+        double[][] block = new double[BLOCK_SIZE][];
+        double[][] blockDecValues = new double[BLOCK_SIZE][];
+        double[] tailNorms = new double[BLOCK_SIZE];
+        if (data != null) {
+            for (int r = 0; r < BLOCK_SIZE; r++) {
+                block[r] = new double[model.getFeatureNum()];
+            }
+        }
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, to - start);
+            for (int r = 0; r < count; r++) {
+                if (data != null) {
+                    tailNorms[r] = CompiledModel.toRow(data.get(start + r), block[r]);
+                } else {
+                    block[r] = rows[start + r];
+                }
+                blockDecValues[r] = decValues[start - from + r];
+            }
+            model.decisionValues(block, count, tailNorms, blockDecValues);
+        }
+        return decValues;
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    interface Range {
+        void run(int from, int to);
+    }
+}
+
+// End BatchPredictor.java
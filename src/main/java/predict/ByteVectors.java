@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import java.util.Arrays;
+
+/**
+ * Support vectors quantised to one byte per feature, in an eighth of the bytes of {@link DoubleVectors}.
+ * <p>
+ * Every feature has its own range, split into 255 steps; values out of the range are clamped to it.
+ */
+final class ByteVectors implements SupportVectors {
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * The step of every value above the minimum of its feature, less 128.
+     */
+    private final byte[] values;
+
+    private final int size;
+
+    private final int dimension;
+
+    /**
+     * The width of a step of every feature.
+     */
+    private final double[] step;
+
+    /**
+     * The value of byte 0 of every feature, {@code min + 128 * step}.
+     */
+    private final double[] base;
+
+    /**
+     * Bits of the largest |value| of a fixed point query, as many as an int sum of the products
+     * of all features can take, at most 15. Its rounding is far below that of the bytes.
+     */
+    private final int queryBits;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * @param sv  the support vectors to quantise
+     * @param min the minimum of every feature
+     * @param max the maximum of every feature
+     */
+    ByteVectors(SupportVectors sv, double[] min, double[] max) {
+        this.size = sv.size();
+        this.dimension = sv.dimension();
+        this.step = new double[this.dimension];
+        this.base = new double[this.dimension];
+        for (int j = 0; j < this.dimension; j++) {
+            this.step[j] = max[j] > min[j] ? (max[j] - min[j]) / 255 : 0.0d;
+            this.base[j] = min[j] + 128 * this.step[j];
+        }
+        int dimensionBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, this.dimension - 1));
+        // |byte| <= 2^7, so a sum takes at most 7 + queryBits + dimensionBits bits, below 2^31
+        this.queryBits = Math.max(1, Math.min(15, 23 - dimensionBits));
+        this.values = new byte[this.size * this.dimension];
+        for (int i = 0; i < this.size; i++) {
+            for (int j = 0; j < this.dimension; j++) {
+                long q = this.step[j] == 0.0d ? 0 : Math.round((sv.get(i, j) - min[j]) / this.step[j]);
+                this.values[i * this.dimension + j] = (byte) (Math.max(0, Math.min(255, q)) - 128);
+            }
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int dimension() {
+        return this.dimension;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return this.base[j] + this.step[j] * this.values[i * this.dimension + j];
+    }
+
+    @Override
+    public Query newQuery() {
+        return new Query(null, null, new int[this.dimension]);
+    }
+
+    /**
+     * A value is {@code base[j] + step[j] * b} of its byte b, so the dot product of a row x and a vector is
+     * {@code sum(x[j] * base[j]) + sum(x[j] * step[j] * b[j])}. The first sum is the constant of the query,
+     * {@code x[j] * step[j]} is taken in fixed point of {@link #queryBits} bits, so that the second sum
+     * is over integers.
+     */
+    @Override
+    public void query(double[] x, Query query) {
+        int d = Math.min(this.dimension, x.length);
+        double constant = 0.0d;
+        double max = 0.0d;
+        for (int j = 0; j < d; j++) {
+            constant += x[j] * this.base[j];
+            max = Math.max(max, Math.abs(x[j] * this.step[j]));
+        }
+        double scale = max == 0.0d ? 1.0d : max / (1 << this.queryBits);
+        for (int j = 0; j < d; j++) {
+            query.ints[j] = (int) Math.round(x[j] * this.step[j] / scale);
+        }
+        Arrays.fill(query.ints, d, this.dimension, 0);
+        query.scale = scale;
+        query.constant = constant;
+    }
+
+    /**
+     * The products of the bytes and the fixed point query are summed exactly as integers.
+     */
+    @Override
+    public double dot(Query query, int i) {
+        int[] x = query.ints;
+        int offset = i * this.dimension;
+        int dot = 0;
+        for (int j = 0; j < this.dimension; j++) {
+            dot += x[j] * this.values[offset + j];
+        }
+        return dot * query.scale + query.constant;
+    }
+
+    @Override
+    public void dots(Query query, int from, int to, double[] dots) {
+        for (int i = from; i < to; i++) {
+            dots[i] = dot(query, i);
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return this.values.length + 16L * this.dimension;
+    }
+}
+
+// End ByteVectors.java
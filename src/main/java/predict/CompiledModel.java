@@ -0,0 +1,375 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.LinearScaleParam;
+import data.Sample;
+import data.SoftScaleParam;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+import java.util.Arrays;
+
+/**
+ * An immutable {@link svm_model} compiled for prediction.
+ * <p>
+ * Predictions of binary and one class models, and of regression models, allocate nothing.
+ * Multi class models take a scratch buffer of the calling thread.
+ * A compiled model may be shared by any number of threads.
+ */
+public abstract class CompiledModel {
+    //~ Instance fields --------------------------------------------------------
+
+    protected final int svmType;
+
+    protected final int nrClass;
+
+    /**
+     * Label of each class, null for one class and regression models.
+     */
+    protected final int[] label;
+
+    /**
+     * Constants in decision functions, one per class pair.
+     */
+    protected final double[] rho;
+
+    /**
+     * Length of the dense feature rows the model is compiled for.
+     */
+    protected final int featureNum;
+
+    /**
+     * Decision values of the calling thread, for multi class models.
+     */
+    private final ThreadLocal<double[]> decValues;
+
+    /**
+     * Votes of the calling thread, for multi class models.
+     */
+    private final ThreadLocal<int[]> votes;
+
+    //~ Constructors -----------------------------------------------------------
+
+    protected CompiledModel(svm_model model, int featureNum) {
+        this(model.param.svm_type, model.nr_class, model.label, model.rho, featureNum);
+    }
+
+    /**
+     * @param svmType    svm type of the model
+     * @param nrClass    number of classes, 2 for one class and regression models
+     * @param label      label of each class, null for one class and regression models
+     * @param rho        constants in decision functions
+     * @param featureNum length of the dense feature rows
+     */
+    protected CompiledModel(int svmType, int nrClass, int[] label, double[] rho, int featureNum) {
+        this.svmType = svmType;
+        this.nrClass = nrClass;
+        this.label = label == null ? null : Arrays.copyOf(label, nrClass);
+        this.rho = Arrays.copyOf(rho, nrClass * (nrClass - 1) / 2);
+        this.featureNum = featureNum;
+        this.decValues = ThreadLocal.withInitial(() -> new double[this.rho.length]);
+        this.votes = ThreadLocal.withInitial(() -> new int[this.nrClass]);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Compile a trained model.
+     *
+     * @param model the model
+     * @return the compiled model
+     * @throws IllegalArgumentException if the kernel is not supported
+     */
+    public static CompiledModel compile(svm_model model) {
+        switch (model.param.kernel_type) {
+            case svm_parameter.LINEAR:
+                return new LinearModel(model, maxIndex(model));
+            case svm_parameter.RBF:
+                return new RBFModel(model, maxIndex(model));
+            default:
+                throw new IllegalArgumentException("kernel type " + model.param.kernel_type + " cannot be compiled");
+        }
+    }
+
+    /**
+     * @return the largest feature index of the support vectors
+     */
+    static int maxIndex(svm_model model) {
+        int maxIndex = 0;
+        for (int i = 0; i < model.l; i++) {
+            for (svm_node node : model.SV[i]) {
+                maxIndex = Math.max(maxIndex, node.index);
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Convert a sample to a dense feature row.
+     *
+     * @param sample     the sample
+     * @param featureNum length of the row
+     * @return the row
+     */
+    public static double[] toRow(Sample sample, int featureNum) {
+        double[] row = new double[featureNum];
+        toRow(sample, row);
+        return row;
+    }
+
+    /**
+     * Convert a sample to a dense feature row in place.
+     * Features of index beyond the row are dropped, but libsvm's RBF kernel still takes them into its distances,
+     * so their squared norm is returned for {@link #predict(double[], double)} and the like.
+     *
+     * @param sample the sample
+     * @param row    the row to fill
+     * @return the sum of the squared values of the dropped features
+     */
+    public static double toRow(Sample sample, double[] row) {
+        Arrays.fill(row, 0.0d);
+        double tailNorm = 0.0d;
+        for (svm_node node : sample) {
+            if (node.index >= 1 && node.index <= row.length) {
+                row[node.index - 1] = node.value;
+            } else if (node.index > row.length) {
+                tailNorm += node.value * node.value;
+            }
+        }
+        return tailNorm;
+    }
+
+    /**
+     * @return the sum of the squared values of the features of a row from {@code from} on, e.g. those a shorter row drops
+     */
+    static double tailNorm(double[] row, int from) {
+        double tailNorm = 0.0d;
+        for (int j = from; j < row.length; j++) {
+            tailNorm += row[j] * row[j];
+        }
+        return tailNorm;
+    }
+
+    /**
+     * The decision value of the first class pair, i.e. the only one of binary, one class and regression models.
+     *
+     * @param x the dense feature row
+     * @return the decision value
+     */
+    public abstract double decisionValue(double[] x);
+
+    /**
+     * @return the bytes taken by the arrays of this model, on or off the heap
+     */
+    public abstract long estimateBytes();
+
+    /**
+     * The decision values of all class pairs, in the order of libsvm.
+     *
+     * @param x         the dense feature row
+     * @param decValues array of at least nr_class * (nr_class - 1) / 2 to receive the values
+     */
+    public abstract void decisionValues(double[] x, double[] decValues);
+
+    /**
+     * The decision values of a row whose features beyond its length were dropped, see {@link #toRow(Sample, double[])}.
+     * Only models of a distance kernel depend on the dropped features.
+     *
+     * @param x         the dense feature row
+     * @param tailNorm  the sum of the squared values of the dropped features
+     * @param decValues array of at least nr_class * (nr_class - 1) / 2 to receive the values
+     */
+    public void decisionValues(double[] x, double tailNorm, double[] decValues) {
+        decisionValues(x, decValues);
+    }
+
+    /**
+     * The decision values of a block of rows.
+     * Implementations may go through the support vectors block by block for all the rows,
+     * so that the support vectors are read from cache.
+     *
+     * @param rows      the dense feature rows
+     * @param count     the number of rows to take from the beginning of {@code rows}
+     * @param decValues arrays to receive the decision values of every row
+     */
+    public void decisionValues(double[][] rows, int count, double[][] decValues) {
+        for (int r = 0; r < count; r++) {
+            decisionValues(rows[r], decValues[r]);
+        }
+    }
+
+    /**
+     * The decision values of a block of rows whose features beyond their length were dropped.
+     *
+     * @param rows      the dense feature rows
+     * @param count     the number of rows to take from the beginning of {@code rows}
+     * @param tailNorms the sum of the squared values of the dropped features of every row
+     * @param decValues arrays to receive the decision values of every row
+     * @see #decisionValues(double[], double, double[])
+     */
+    public void decisionValues(double[][] rows, int count, double[] tailNorms, double[][] decValues) {
+        decisionValues(rows, count, decValues);
+    }
+
+    /**
+     * Predict from the decision values of a row.
+     *
+     * @param decValues the decision values, see {@link #decisionValues(double[], double[])}
+     * @return the predicted label, or the predicted value of regression models
+     */
+    public double decide(double[] decValues) {
+        if (this.rho.length == 1) {
+            return decide(decValues[0]);
+        }
+        return vote(decValues);
+    }
+
+    /**
+     * Predict from the only decision value of a binary, one class or regression model.
+     */
+    double decide(double decValue) {
+        if (this.svmType == svm_parameter.ONE_CLASS) {
+            return decValue > 0 ? 1 : -1;
+        }
+        if (isRegression()) {
+            return decValue;
+        }
+        return decValue > 0 ? this.label[0] : this.label[1];
+    }
+
+    boolean isRegression() {
+        return this.svmType == svm_parameter.EPSILON_SVR || this.svmType == svm_parameter.NU_SVR;
+    }
+
+    /**
+     * @return the number of decision values of a row, one per class pair
+     */
+    public int getDecisionValueNum() {
+        return this.rho.length;
+    }
+
+    /**
+     * Predict a dense feature row, as {@code svm.svm_predict} does.
+     *
+     * @param x the dense feature row
+     * @return the predicted label, or the predicted value of regression models
+     */
+    public double predict(double[] x) {
+        double[] decValues = this.decValues.get();
+        if (this.nrClass == 2) {
+            decValues[0] = decisionValue(x);
+        } else {
+            decisionValues(x, decValues);
+        }
+        return decide(decValues);
+    }
+
+    /**
+     * Predict a row whose features beyond its length were dropped, see {@link #toRow(Sample, double[])}.
+     *
+     * @param x        the dense feature row
+     * @param tailNorm the sum of the squared values of the dropped features
+     * @return the predicted label, or the predicted value of regression models
+     */
+    public double predict(double[] x, double tailNorm) {
+        if (tailNorm == 0.0d) {
+            return predict(x);
+        }
+        double[] decValues = this.decValues.get();
+        decisionValues(x, tailNorm, decValues);
+        return decide(decValues);
+    }
+
+    /**
+     * This model taking raw rows, scaled as {@link data.Dataset#linearScaleFrom} scales the samples.
+     * The scaling is folded into the weights of linear models, other models scale each row as they predict it.
+     * Results differ from predicting scaled rows only by rounding.
+     *
+     * @param param the result returned by {@code linearScale} on the training data
+     * @return a model of raw rows
+     */
+    public CompiledModel scaledBy(LinearScaleParam param) {
+        return scaledBy(Scaling.of(param, this.featureNum));
+    }
+
+    /**
+     * This model taking raw rows, scaled as {@link data.Dataset#softScaleFrom} scales the samples.
+     *
+     * @param param the result returned by {@code softScale} on the training data
+     * @return a model of raw rows
+     * @see #scaledBy(LinearScaleParam)
+     */
+    public CompiledModel scaledBy(SoftScaleParam param) {
+        return scaledBy(Scaling.of(param, this.featureNum));
+    }
+
+    CompiledModel scaledBy(Scaling scaling) {
+        return new ScaledModel(this, scaling);
+    }
+
+    /**
+     * The label of the most votes of the class pairs, the first one when tied.
+     */
+    protected double vote(double[] decValues) {
+        int[] votes = this.votes.get();
+        Arrays.fill(votes, 0);
+        int p = 0;
+        for (int i = 0; i < this.nrClass; i++) {
+            for (int j = i + 1; j < this.nrClass; j++) {
+                if (decValues[p++] > 0) {
+                    ++votes[i];
+                } else {
+                    ++votes[j];
+                }
+            }
+        }
+        int maxIndex = 0;
+        for (int i = 1; i < this.nrClass; i++) {
+            if (votes[i] > votes[maxIndex]) {
+                maxIndex = i;
+            }
+        }
+        return this.label[maxIndex];
+    }
+
+    public int getSvmType() {
+        return this.svmType;
+    }
+
+    public int getNrClass() {
+        return this.nrClass;
+    }
+
+    /**
+     * @return labels of the classes, null for one class and regression models
+     */
+    public int[] getLabels() {
+        return this.label == null ? null : this.label.clone();
+    }
+
+    public int getFeatureNum() {
+        return this.featureNum;
+    }
+
+    /**
+     * @return the number of kernel values a row takes, 0 if the model computes none
+     */
+    int kernelsPerRow() {
+        return 0;
+    }
+}
+
+// End CompiledModel.java
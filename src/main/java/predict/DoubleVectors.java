@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+/**
+ * Support vectors in one {@code double[]} on the heap.
+ */
+final class DoubleVectors implements SupportVectors {
+    //~ Instance fields --------------------------------------------------------
+
+    private final double[] values;
+
+    private final int size;
+
+    private final int dimension;
+
+    //~ Constructors -----------------------------------------------------------
+
+    DoubleVectors(double[] values, int size, int dimension) {
+        this.values = values;
+        this.size = size;
+        this.dimension = dimension;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int dimension() {
+        return this.dimension;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return this.values[i * this.dimension + j];
+    }
+
+    @Override
+    public double dot(Query query, int i) {
+        double[] x = query.values;
+        int offset = i * this.dimension;
+        double dot = 0.0d;
+        for (int j = 0; j < this.dimension; j++) {
+            dot += x[j] * this.values[offset + j];
+        }
+        return dot;
+    }
+
+    @Override
+    public void dots(Query query, int from, int to, double[] dots) {
+        for (int i = from; i < to; i++) {
+            dots[i] = dot(query, i);
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return 8L * this.values.length;
+    }
+}
+
+// End DoubleVectors.java
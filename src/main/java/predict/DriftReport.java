@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.Dataset;
+
+/**
+ * How far an approximate model, e.g. {@link RBFModel#toFloat()}, drifts from the model it was made of.
+ * <p>
+ * The decision values and labels of both models are compared sample by sample,
+ * along with their accuracies, sizes and prediction times.
+ */
+public final class DriftReport {
+    //~ Instance fields --------------------------------------------------------
+
+    private final int samples;
+
+    private final double agreement;
+
+    private final double referenceAccuracy;
+
+    private final double accuracy;
+
+    private final double maxDrift;
+
+    private final double meanDrift;
+
+    private final long referenceBytes;
+
+    private final long bytes;
+
+    private final long referenceNanos;
+
+    private final long nanos;
+
+    //~ Constructors -----------------------------------------------------------
+
+    private DriftReport(int samples, double agreement, double referenceAccuracy, double accuracy,
+                        double maxDrift, double meanDrift, long referenceBytes, long bytes,
+                        long referenceNanos, long nanos) {
+        this.samples = samples;
+        this.agreement = agreement;
+        this.referenceAccuracy = referenceAccuracy;
+        this.accuracy = accuracy;
+        this.maxDrift = maxDrift;
+        this.meanDrift = meanDrift;
+        this.referenceBytes = referenceBytes;
+        this.bytes = bytes;
+        this.referenceNanos = referenceNanos;
+        this.nanos = nanos;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Compare two models of the same classes on a dataset.
+     *
+     * @param reference the full model
+     * @param candidate the approximate model
+     * @param data      samples to compare on, scaled as the training set
+     * @return the report
+     */
+    public static DriftReport measure(CompiledModel reference, CompiledModel candidate, Dataset data) {
+        int featureNum = Math.max(reference.getFeatureNum(), candidate.getFeatureNum());
+        double[][] rows = new double[data.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = CompiledModel.toRow(data.get(i), featureNum);
+        }
+        double[] expected = new double[reference.getDecisionValueNum()];
+        double[] actual = new double[candidate.getDecisionValueNum()];
+        int agreed = 0;
+        int referenceHits = 0;
+        int hits = 0;
+        double maxDrift = 0.0d;
+        double driftSum = 0.0d;
+        for (int i = 0; i < rows.length; i++) {
+            reference.decisionValues(rows[i], expected);
+            candidate.decisionValues(rows[i], actual);
+            for (int p = 0; p < expected.length; p++) {
+                double drift = Math.abs(expected[p] - actual[p]);
+                maxDrift = Math.max(maxDrift, drift);
+                driftSum += drift;
+            }
+            double label = data.get(i).getLabel();
+            double referenceLabel = reference.decide(expected);
+            double candidateLabel = candidate.decide(actual);
+            agreed += referenceLabel == candidateLabel ? 1 : 0;
+            referenceHits += referenceLabel == label ? 1 : 0;
+            hits += candidateLabel == label ? 1 : 0;
+        }
+
+        // the best of a few runs, taken in turns so that both models are compiled by the JIT alike
+        long referenceNanos = Long.MAX_VALUE;
+        long nanos = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            referenceNanos = Math.min(referenceNanos, time(reference, rows));
+            nanos = Math.min(nanos, time(candidate, rows));
+        }
+        int n = Math.max(1, rows.length);
+        return new DriftReport(rows.length, (double) agreed / n, (double) referenceHits / n, (double) hits / n,
+                maxDrift, driftSum / n / Math.max(1, expected.length),
+                reference.estimateBytes(), candidate.estimateBytes(), referenceNanos, nanos);
+    }
+
+    private static long time(CompiledModel model, double[][] rows) {
+        long start = System.nanoTime();
+        for (double[] row : rows) {
+            model.predict(row);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public int getSamples() {
+        return this.samples;
+    }
+
+    /**
+     * @return the fraction of samples both models give the same label
+     */
+    public double getAgreement() {
+        return this.agreement;
+    }
+
+    public double getReferenceAccuracy() {
+        return this.referenceAccuracy;
+    }
+
+    public double getAccuracy() {
+        return this.accuracy;
+    }
+
+    /**
+     * @return the largest difference of a decision value
+     */
+    public double getMaxDrift() {
+        return this.maxDrift;
+    }
+
+    /**
+     * @return the mean difference of the decision values
+     */
+    public double getMeanDrift() {
+        return this.meanDrift;
+    }
+
+    /**
+     * @return the bytes of the reference model over those of the candidate
+     */
+    public double getCompression() {
+        return this.bytes == 0 ? 1.0d : (double) this.referenceBytes / this.bytes;
+    }
+
+    /**
+     * @return how many times faster the candidate predicts
+     */
+    public double getSpeedUp() {
+        return this.nanos == 0 ? 1.0d : (double) this.referenceNanos / this.nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "samples: " + this.samples
+                + "; label agreement: " + String.format("%.4f", this.agreement)
+                + "; accuracy: " + String.format("%.4f", this.referenceAccuracy)
+                + " -> " + String.format("%.4f", this.accuracy)
+                + "; decision value drift: max " + String.format("%.3g", this.maxDrift)
+                + ", mean " + String.format("%.3g", this.meanDrift)
+                + "; bytes: " + this.referenceBytes + " -> " + this.bytes
+                + "; speed-up: " + String.format("%.2f", getSpeedUp()) + "x";
+    }
+}
+
+// End DriftReport.java
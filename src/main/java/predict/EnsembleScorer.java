@@ -0,0 +1,284 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.Dataset;
+import data.Sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scores samples against several compiled models at once, e.g. a risk, a valuation and an anomaly model.
+ * <p>
+ * A sample is converted to a dense row once. The models scaled by the same parameter,
+ * see {@link CompiledModel#scaledBy(data.LinearScaleParam)}, share one scaled row,
+ * and the RBF models among them share its squared norm.
+ * <p>
+ * The result of a sample is one row, every model in turn gives its predicted label followed by its decision values,
+ * starting at column {@link #getColumn(int)}.
+ */
+public final class EnsembleScorer {
+    //~ Instance fields --------------------------------------------------------
+
+    private final int modelNum;
+
+    /**
+     * First column of every model in a result row.
+     */
+    private final int[] columns;
+
+    private final int columnNum;
+
+    /**
+     * Length of the raw rows, enough for every model.
+     */
+    private final int featureNum;
+
+    private final Group[] groups;
+
+    private final BatchPredictor batchPredictor;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Score batches on the common pool.
+     *
+     * @param models the models, in the order of the result columns
+     */
+    public EnsembleScorer(List<? extends CompiledModel> models) {
+        this(models, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param models the models, in the order of the result columns
+     * @param pool   the pool to score batches on
+     */
+    public EnsembleScorer(List<? extends CompiledModel> models, ForkJoinPool pool) {
+        this.modelNum = models.size();
+        this.columns = new int[this.modelNum];
+        int columnNum = 0;
+        int featureNum = 0;
+        List<Group> groups = new ArrayList<>();
+        for (int m = 0; m < this.modelNum; m++) {
+            CompiledModel model = models.get(m);
+            this.columns[m] = columnNum;
+            columnNum += 1 + model.getDecisionValueNum();
+            featureNum = Math.max(featureNum, model.getFeatureNum());
+
+            Scaling scaling = null;
+            if (model instanceof ScaledModel) {
+                scaling = ((ScaledModel) model).getScaling();
+                model = ((ScaledModel) model).getModel();
+            }
+            Group group = null;
+            for (Group g : groups) {
+                if (g.sameScaling(scaling)) {
+                    group = g;
+                }
+            }
+            if (group == null) {
+                group = new Group(scaling);
+                groups.add(group);
+            }
+            group.add(m, model);
+        }
+        this.columnNum = columnNum;
+        this.featureNum = featureNum;
+        this.groups = groups.toArray(new Group[0]);
+        this.batchPredictor = new BatchPredictor(pool);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Score a sample.
+     *
+     * @param sample the sample, scaled as the models expect
+     * @return the result row
+     */
+    public double[] score(Sample sample) {
+        double[] row = new double[this.featureNum];
+        double[] tailNorms = {CompiledModel.toRow(sample, row)};
+        double[][] results = new double[1][this.columnNum];
+        scoreBlock(new double[][]{row}, 1, tailNorms, results, 0);
+        return results[0];
+    }
+
+    /**
+     * Score a dense feature row.
+     *
+     * @param row the dense feature row, scaled as the models expect
+     * @return the result row
+     */
+    public double[] score(double[] row) {
+        double[][] results = new double[1][this.columnNum];
+        scoreBlock(new double[][]{row}, 1, new double[1], results, 0);
+        return results[0];
+    }
+
+    /**
+     * Score every sample of a dataset, block by block on the pool, see {@link BatchPredictor}.
+     *
+     * @param data the samples, scaled as the models expect
+     * @return a result row per sample, in the same order
+     */
+    public double[][] score(Dataset data) {
+        double[][] results = new double[data.size()][this.columnNum];
+        this.batchPredictor.run(data.size(), (from, to) -> {
+            double[][] block = new double[BatchPredictor.BLOCK_SIZE][this.featureNum];
+            double[] tailNorms = new double[BatchPredictor.BLOCK_SIZE];
+            for (int start = from; start < to; start += BatchPredictor.BLOCK_SIZE) {
+                int count = Math.min(BatchPredictor.BLOCK_SIZE, to - start);
+                for (int r = 0; r < count; r++) {
+                    tailNorms[r] = CompiledModel.toRow(data.get(start + r), block[r]);
+                }
+                scoreBlock(block, count, tailNorms, results, start);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Score dense feature rows.
+     *
+     * @param rows the dense feature rows, scaled as the models expect
+     * @return a result row per row, in the same order
+     */
+    public double[][] score(double[][] rows) {
+        double[][] results = new double[rows.length][this.columnNum];
+        this.batchPredictor.run(rows.length, (from, to) -> {
+            double[][] block = new double[BatchPredictor.BLOCK_SIZE][];
+            double[] tailNorms = new double[BatchPredictor.BLOCK_SIZE];
+            for (int start = from; start < to; start += BatchPredictor.BLOCK_SIZE) {
+                int count = Math.min(BatchPredictor.BLOCK_SIZE, to - start);
+                System.arraycopy(rows, start, block, 0, count);
+                scoreBlock(block, count, tailNorms, results, start);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Score a block of raw rows into {@code results[offset, offset + count)}.
+     *
+     * @param tailNorms the sum of the squared values of the features dropped from every row
+     */
+    private void scoreBlock(double[][] raw, int count, double[] tailNorms, double[][] results, int offset) {
+        for (Group group : this.groups) {
+            double[][] rows = raw;
+            double[] groupTailNorms = tailNorms;
+            if (group.scaling != null) {
+                rows = new double[count][group.scaling.size()];
+                groupTailNorms = new double[count];
+                for (int r = 0; r < count; r++) {
+                    group.scaling.apply(raw[r], rows[r]);
+                    // features beyond the scaling are taken unscaled, as ScaledModel takes them
+                    groupTailNorms[r] = tailNorms[r] + CompiledModel.tailNorm(raw[r], rows[r].length);
+                }
+            }
+
+            // squared norms of the whole rows, shared by every RBF model
+            double[] xNorms = null;
+            if (group.hasRBF) {
+                xNorms = new double[count];
+                for (int r = 0; r < count; r++) {
+                    xNorms[r] = RBFModel.squaredNorm(rows[r]) + groupTailNorms[r];
+                }
+            }
+
+            for (int k = 0; k < group.models.size(); k++) {
+                CompiledModel model = group.models.get(k);
+                double[][] decValues = new double[count][model.getDecisionValueNum()];
+                if (model instanceof RBFModel) {
+                    // features beyond the model are left out of the dot products, but not out of the distances
+                    ((RBFModel) model).decisionValuesOfNorms(rows, count, xNorms, decValues);
+                } else {
+                    model.decisionValues(rows, count, decValues);
+                }
+                int column = this.columns[group.indices.get(k)];
+                for (int r = 0; r < count; r++) {
+                    double[] result = results[offset + r];
+                    result[column] = model.decide(decValues[r]);
+                    System.arraycopy(decValues[r], 0, result, column + 1, decValues[r].length);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of models
+     */
+    public int getModelNum() {
+        return this.modelNum;
+    }
+
+    /**
+     * @return the length of a result row
+     */
+    public int getColumnNum() {
+        return this.columnNum;
+    }
+
+    /**
+     * @param model index of a model
+     * @return the column of the predicted label of the model, its decision values follow
+     */
+    public int getColumn(int model) {
+        return this.columns[model];
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * The models of the same scaling.
+     */
+    private static final class Group {
+        /**
+         * The scaling, null for models of scaled rows.
+         */
+        private final Scaling scaling;
+
+        private final List<CompiledModel> models = new ArrayList<>();
+
+        /**
+         * Index of every model in the result columns.
+         */
+        private final List<Integer> indices = new ArrayList<>();
+
+        private boolean hasRBF;
+
+        private Group(Scaling scaling) {
+            this.scaling = scaling;
+        }
+
+        private boolean sameScaling(Scaling other) {
+            if (this.scaling == null || other == null) {
+                return this.scaling == other;
+            }
+            return Arrays.equals(this.scaling.multiplier, other.multiplier)
+                    && Arrays.equals(this.scaling.offset, other.offset);
+        }
+
+        private void add(int index, CompiledModel model) {
+            this.models.add(model);
+            this.indices.add(index);
+            this.hasRBF |= model instanceof RBFModel;
+        }
+    }
+}
+
+// End EnsembleScorer.java
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import java.util.Arrays;
+
+/**
+ * Support vectors rounded to {@code float}, in half the bytes of {@link DoubleVectors}.
+ * The dot products are taken in {@code float} too, with a row rounded once.
+ */
+final class FloatVectors implements SupportVectors {
+    //~ Instance fields --------------------------------------------------------
+
+    private final float[] values;
+
+    private final int size;
+
+    private final int dimension;
+
+    //~ Constructors -----------------------------------------------------------
+
+    FloatVectors(SupportVectors sv) {
+        this.size = sv.size();
+        this.dimension = sv.dimension();
+        this.values = new float[this.size * this.dimension];
+        for (int i = 0; i < this.size; i++) {
+            for (int j = 0; j < this.dimension; j++) {
+                this.values[i * this.dimension + j] = (float) sv.get(i, j);
+            }
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int dimension() {
+        return this.dimension;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return this.values[i * this.dimension + j];
+    }
+
+    @Override
+    public Query newQuery() {
+        return new Query(null, new float[this.dimension], null);
+    }
+
+    @Override
+    public void query(double[] x, Query query) {
+        int d = Math.min(this.dimension, x.length);
+        for (int j = 0; j < d; j++) {
+            query.floats[j] = (float) x[j];
+        }
+        Arrays.fill(query.floats, d, this.dimension, 0.0f);
+    }
+
+    /**
+     * Multiplied and summed in {@code float}, a conversion per value would cost more than the double loop.
+     */
+    @Override
+    public double dot(Query query, int i) {
+        float[] x = query.floats;
+        int offset = i * this.dimension;
+        float dot = 0.0f;
+        for (int j = 0; j < this.dimension; j++) {
+            dot += x[j] * this.values[offset + j];
+        }
+        return dot;
+    }
+
+    @Override
+    public void dots(Query query, int from, int to, double[] dots) {
+        for (int i = from; i < to; i++) {
+            dots[i] = dot(query, i);
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return 4L * this.values.length;
+    }
+}
+
+// End FloatVectors.java
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, for percentiles of latencies.
+ * <p>
+ * Durations below 16ns are counted exactly, longer ones in 16 buckets per power of 2,
+ * so a percentile is off by at most 1/32 of its value.
+ */
+public final class LatencyHistogram {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final int SUB_BUCKETS = 16;
+
+    private static final int SUB_BITS = 4;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    //~ Methods ----------------------------------------------------------------
+
+    private static int index(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The middle of a bucket.
+     */
+    private static long value(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    /**
+     * @param nanos a duration
+     */
+    public void record(long nanos) {
+        this.buckets.incrementAndGet(index(nanos));
+        this.count.increment();
+        this.sum.add(nanos);
+        this.max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the mean duration in nanoseconds, 0 if none recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0.0d : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * @return the longest duration in nanoseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param quantile e.g. 0.99 for the 99th percentile
+     * @return the duration the given fraction of durations is within, in nanoseconds, 0 if none recorded
+     */
+    public long getPercentile(double quantile) {
+        long[] counts = new long[this.buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(value(i), getMax());
+            }
+        }
+        return getMax();
+    }
+}
+
+// End LatencyHistogram.java
@@ -0,0 +1,260 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import libsvm.svm_model;
+import libsvm.svm_node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compiled linear model.
+ * <p>
+ * The support vectors of every class pair are collapsed into one weight vector,
+ * so a decision value takes a single dot product however many support vectors the model has.
+ * The model is saved in a compact text form:
+ * <pre>
+ * svm_type c_svc
+ * nr_class 2
+ * label 1 -1
+ * feature_num 9
+ * rho 0.5
+ * w 0.1 -0.2 ...
+ * </pre>
+ * with one {@code w} line per class pair, in the order of libsvm.
+ */
+public final class LinearModel extends CompiledModel {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinearModel.class);
+
+    private static final String[] SVM_TYPES = {"c_svc", "nu_svc", "one_class", "epsilon_svr", "nu_svr"};
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * Weight vector of every class pair, row-major, {@link #featureNum} values per row.
+     */
+    private final double[] w;
+
+    //~ Constructors -----------------------------------------------------------
+
+    LinearModel(svm_model model, int featureNum) {
+        super(model, featureNum);
+        this.w = new double[this.rho.length * featureNum];
+        if (this.rho.length == 1) {
+            for (int k = 0; k < model.l; k++) {
+                addTo(0, model.sv_coef[0][k], model.SV[k]);
+            }
+            return;
+        }
+
+        int[] start = new int[this.nrClass];
+        for (int i = 1; i < this.nrClass; i++) {
+            start[i] = start[i - 1] + model.nSV[i - 1];
+        }
+        // the same pairing as svm.svm_predict_values
+        int p = 0;
+        for (int i = 0; i < this.nrClass; i++) {
+            for (int j = i + 1; j < this.nrClass; j++) {
+                for (int k = start[i]; k < start[i] + model.nSV[i]; k++) {
+                    addTo(p, model.sv_coef[j - 1][k], model.SV[k]);
+                }
+                for (int k = start[j]; k < start[j] + model.nSV[j]; k++) {
+                    addTo(p, model.sv_coef[i][k], model.SV[k]);
+                }
+                p++;
+            }
+        }
+    }
+
+    LinearModel(int svmType, int nrClass, int[] label, double[] rho, int featureNum, double[] w) {
+        super(svmType, nrClass, label, rho, featureNum);
+        this.w = w;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    private void addTo(int pair, double coef, svm_node[] sv) {
+        int offset = pair * this.featureNum;
+        for (svm_node node : sv) {
+            this.w[offset + node.index - 1] += coef * node.value;
+        }
+    }
+
+    private double dot(double[] x, int pair) {
+        int d = Math.min(this.featureNum, x.length);
+        int offset = pair * this.featureNum;
+        double sum = 0.0d;
+        for (int j = 0; j < d; j++) {
+            sum += x[j] * this.w[offset + j];
+        }
+        return sum;
+    }
+
+    @Override
+    public double decisionValue(double[] x) {
+        return dot(x, 0) - this.rho[0];
+    }
+
+    @Override
+    public void decisionValues(double[] x, double[] decValues) {
+        for (int p = 0; p < this.rho.length; p++) {
+            decValues[p] = dot(x, p) - this.rho[p];
+        }
+    }
+
+    /**
+     * Folds the scaling into the weights, w . (a * x + b) = (w * a) . x + w . b, so raw rows cost nothing more.
+     */
+    @Override
+    CompiledModel scaledBy(Scaling scaling) {
+        double[] w = new double[this.w.length];
+        double[] rho = this.rho.clone();
+        for (int p = 0; p < this.rho.length; p++) {
+            int offset = p * this.featureNum;
+            for (int j = 0; j < this.featureNum; j++) {
+                w[offset + j] = this.w[offset + j] * scaling.multiplier[j];
+                rho[p] -= this.w[offset + j] * scaling.offset[j];
+            }
+        }
+        return new LinearModel(this.svmType, this.nrClass, this.label, rho, this.featureNum, w);
+    }
+
+    @Override
+    public long estimateBytes() {
+        return 8L * this.w.length;
+    }
+
+    double[] getW() {
+        return this.w;
+    }
+
+    /**
+     * @param pair index of the class pair
+     * @return a copy of the weight vector of the class pair
+     */
+    public double[] getWeights(int pair) {
+        return Arrays.copyOfRange(this.w, pair * this.featureNum, (pair + 1) * this.featureNum);
+    }
+
+    /**
+     * Save this model in the compact form.
+     *
+     * @param modelFile destination file name
+     */
+    public void save(String modelFile) {
+        try (FileWriter fw = new FileWriter(modelFile);
+             BufferedWriter bw = new BufferedWriter(fw)) {
+            bw.write("svm_type " + SVM_TYPES[this.svmType] + '\n');
+            bw.write("nr_class " + this.nrClass + '\n');
+            if (this.label != null) {
+                bw.write("label");
+                for (int label : this.label) {
+                    bw.write(" " + label);
+                }
+                bw.write('\n');
+            }
+            bw.write("feature_num " + this.featureNum + '\n');
+            bw.write("rho");
+            for (double rho : this.rho) {
+                bw.write(" " + rho);
+            }
+            bw.write('\n');
+            for (int p = 0; p < this.rho.length; p++) {
+                bw.write("w");
+                for (int j = 0; j < this.featureNum; j++) {
+                    bw.write(" " + this.w[p * this.featureNum + j]);
+                }
+                bw.write('\n');
+            }
+        } catch (IOException e) {
+            LOGGER.error("save linear model failed!");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Load a model saved by {@link #save}.
+     *
+     * @param modelFile model file name
+     * @return the model, or null if failed to load
+     */
+    public static LinearModel load(String modelFile) {
+        try (FileReader fr = new FileReader(modelFile);
+             BufferedReader br = new BufferedReader(fr)) {
+            int svmType = -1;
+            int nrClass = 0;
+            int featureNum = 0;
+            int[] label = null;
+            double[] rho = null;
+            double[] w = null;
+            int pairs = 0;
+
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                switch (fields[0]) {
+                    case "svm_type":
+                        svmType = Arrays.asList(SVM_TYPES).indexOf(fields[1]);
+                        break;
+                    case "nr_class":
+                        nrClass = Integer.parseInt(fields[1]);
+                        break;
+                    case "label":
+                        label = new int[fields.length - 1];
+                        for (int i = 1; i < fields.length; i++) {
+                            label[i - 1] = Integer.parseInt(fields[i]);
+                        }
+                        break;
+                    case "feature_num":
+                        featureNum = Integer.parseInt(fields[1]);
+                        break;
+                    case "rho":
+                        rho = new double[fields.length - 1];
+                        for (int i = 1; i < fields.length; i++) {
+                            rho[i - 1] = Double.parseDouble(fields[i]);
+                        }
+                        w = new double[rho.length * featureNum];
+                        break;
+                    case "w":
+                        for (int j = 1; j < fields.length; j++) {
+                            w[pairs * featureNum + j - 1] = Double.parseDouble(fields[j]);
+                        }
+                        pairs++;
+                        break;
+                    default:
+                        throw new IOException("unknown line: " + line);
+                }
+            }
+            if (svmType < 0 || rho == null || pairs != rho.length) {
+                throw new IOException("incomplete linear model");
+            }
+            return new LinearModel(svmType, nrClass, label, rho, featureNum, w);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("load linear model failed!");
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
+
+// End LinearModel.java
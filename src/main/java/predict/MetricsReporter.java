@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import java.util.Map;
+
+/**
+ * Receives the prediction metrics periodically, see {@link PredictionMetrics#startReporting}.
+ */
+public interface MetricsReporter {
+
+    /**
+     * Report the metrics, called from the reporting thread.
+     *
+     * @param timers the timers by name
+     * @param gauges the gauges by name, e.g. the hit rates of the prediction caches
+     */
+    void report(Map<String, PredictionMetrics.Snapshot> timers, Map<String, Double> gauges);
+}
+
+// End MetricsReporter.java
@@ -0,0 +1,272 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import libsvm.svm;
+import libsvm.svm_model;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary form of a {@link CompiledModel}, to be memory mapped.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ * int magic, version, kind, svm_type, nr_class, feature_num, l, has_label
+ * double gamma
+ * int label[nr_class], nSV[nr_class], padding to 8 bytes
+ * double rho[nr_class * (nr_class - 1) / 2]
+ * RBF:    double coef[(nr_class - 1) * l], norm[l], sv[l * feature_num]
+ * linear: double w[nr_class * (nr_class - 1) / 2 * feature_num]
+ * scaled RBF: as RBF, then double multiplier[feature_num], offset[feature_num]
+ * </pre>
+ * A {@link ScaledModel} keeps its scaling in the file, a scaled linear model is written with the scaling folded in.
+ * The support vectors of a mapped RBF model are read from the file and never copied to the heap,
+ * so the model is ready as soon as its coefficients are read.
+ * Reading through the mapping is somewhat slower than {@link CompiledModel#compile} on the heap,
+ * it suits large models and models loaded and dropped often.
+ * A file has to be smaller than 2GB.
+ */
+public final class ModelFile {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final int MAGIC = 0x53564d4d;
+
+    private static final int VERSION = 1;
+
+    static final int RBF = 0;
+
+    static final int LINEAR = 1;
+
+    static final int SCALED_RBF = 2;
+
+    private static final int HEADER_BYTES = 8 * 4 + 8;
+
+    //~ Constructors -----------------------------------------------------------
+
+    private ModelFile() {
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Convert a libsvm text model into the binary form.
+     * <p>
+     * Usage: {@code java -cp <classpath> predict.ModelFile <text model> <binary model>}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: predict.ModelFile <text model> <binary model>");
+            return;
+        }
+        convert(args[0], args[1]);
+    }
+
+    /**
+     * Convert a libsvm text model into the binary form.
+     *
+     * @param textModel   model file saved by libsvm
+     * @param binaryModel destination file name
+     * @throws IOException if failed to read or write
+     */
+    public static void convert(String textModel, String binaryModel) throws IOException {
+        svm_model model = svm.svm_load_model(textModel);
+        write(CompiledModel.compile(model), binaryModel);
+    }
+
+    /**
+     * Load a model of either form, a binary model is mapped and a libsvm text model is compiled.
+     *
+     * @param filename model file name
+     * @return the compiled model
+     * @throws IOException if failed to read
+     */
+    public static CompiledModel load(String filename) throws IOException {
+        boolean binary;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            binary = magic.position() == 4 && magic.getInt(0) == MAGIC;
+        }
+        return binary ? map(filename) : CompiledModel.compile(svm.svm_load_model(filename));
+    }
+
+    private static int pad(int bytes) {
+        return (bytes + 7) / 8 * 8;
+    }
+
+    /**
+     * Write a compiled model.
+     *
+     * @param model    an RBF, linear or scaled compiled model
+     * @param filename destination file name
+     * @throws IOException if failed to write
+     */
+    public static void write(CompiledModel model, String filename) throws IOException {
+        Scaling scaling = null;
+        if (model instanceof ScaledModel) {
+            scaling = ((ScaledModel) model).getScaling();
+            model = ((ScaledModel) model).getModel();
+            if (model instanceof LinearModel) {
+                model = model.scaledBy(scaling);
+                scaling = null;
+            }
+        }
+        int kind;
+        int l;
+        if (model instanceof RBFModel) {
+            kind = scaling == null ? RBF : SCALED_RBF;
+            l = ((RBFModel) model).getSVNum();
+        } else if (model instanceof LinearModel) {
+            kind = LINEAR;
+            l = 0;
+        } else {
+            throw new IllegalArgumentException(model.getClass().getSimpleName() + " cannot be written");
+        }
+        int nrClass = model.nrClass;
+        int pairs = model.rho.length;
+        int d = model.featureNum;
+        long bytes = pad(HEADER_BYTES + 8 * nrClass) + 8L * pairs
+                + (kind == LINEAR ? 8L * pairs * d : 8L * ((nrClass - 1) * (long) l + l + (long) l * d))
+                + (kind == SCALED_RBF ? 16L * d : 0L);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("model too large for " + filename);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(model.svmType)
+                    .putInt(nrClass).putInt(d).putInt(l).putInt(model.label == null ? 0 : 1);
+            buffer.putDouble(kind == LINEAR ? 0.0d : ((RBFModel) model).getGamma());
+            for (int i = 0; i < nrClass; i++) {
+                buffer.putInt(model.label == null ? 0 : model.label[i]);
+            }
+            for (int i = 0; i < nrClass; i++) {
+                buffer.putInt(kind == LINEAR ? 0 : ((RBFModel) model).getNSV()[i]);
+            }
+            buffer.position(pad(buffer.position()));
+            for (double rho : model.rho) {
+                buffer.putDouble(rho);
+            }
+            if (kind != LINEAR) {
+                RBFModel rbf = (RBFModel) model;
+                for (double coef : rbf.getCoef()) {
+                    buffer.putDouble(coef);
+                }
+                for (double norm : rbf.getSVNorms()) {
+                    buffer.putDouble(norm);
+                }
+                SupportVectors sv = rbf.getSupportVectors();
+                for (int i = 0; i < l; i++) {
+                    for (int j = 0; j < d; j++) {
+                        buffer.putDouble(sv.get(i, j));
+                    }
+                }
+                if (scaling != null) {
+                    for (double multiplier : scaling.multiplier) {
+                        buffer.putDouble(multiplier);
+                    }
+                    for (double offset : scaling.offset) {
+                        buffer.putDouble(offset);
+                    }
+                }
+            } else {
+                for (double w : ((LinearModel) model).getW()) {
+                    buffer.putDouble(w);
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * Map a model written by {@link #write}.
+     *
+     * @param filename model file name
+     * @return the compiled model
+     * @throws IOException if failed to read, or the file is not a binary model
+     */
+    public static CompiledModel map(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is too large to map");
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(filename + " is not a binary model");
+            }
+            int kind = buffer.getInt();
+            int svmType = buffer.getInt();
+            int nrClass = buffer.getInt();
+            int d = buffer.getInt();
+            int l = buffer.getInt();
+            boolean hasLabel = buffer.getInt() != 0;
+            double gamma = buffer.getDouble();
+            int[] label = new int[nrClass];
+            for (int i = 0; i < nrClass; i++) {
+                label[i] = buffer.getInt();
+            }
+            int[] nSV = new int[nrClass];
+            for (int i = 0; i < nrClass; i++) {
+                nSV[i] = buffer.getInt();
+            }
+            buffer.position(pad(buffer.position()));
+            int pairs = nrClass * (nrClass - 1) / 2;
+            double[] rho = doubles(buffer, pairs);
+
+            if (kind == LINEAR) {
+                return new LinearModel(svmType, nrClass, hasLabel ? label : null, rho, d, doubles(buffer, pairs * d));
+            }
+            if (kind != RBF && kind != SCALED_RBF) {
+                throw new IOException("unknown model kind " + kind + " in " + filename);
+            }
+            double[] coef = doubles(buffer, (nrClass - 1) * l);
+            double[] norms = doubles(buffer, l);
+            ByteBuffer svBytes = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            DoubleBuffer sv = svBytes.asDoubleBuffer();
+            if (sv.remaining() < (long) l * d + (kind == SCALED_RBF ? 2L * d : 0L)) {
+                throw new IOException(filename + " is truncated");
+            }
+            RBFModel model = new RBFModel(svmType, nrClass, hasLabel ? label : null, rho, gamma, nSV, coef, norms,
+                    new MappedVectors(sv, l, d));
+            if (kind == RBF) {
+                return model;
+            }
+            buffer.position(buffer.position() + 8 * l * d);
+            return new ScaledModel(model, new Scaling(doubles(buffer, d), doubles(buffer, d)));
+        }
+    }
+
+    private static double[] doubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+}
+
+// End ModelFile.java
@@ -0,0 +1,583 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.Dataset;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Shrinks a trained RBF classification model, so that it predicts faster.
+ * <p>
+ * First the support vectors of a class that are duplicates, or within {@link #mergeDistance} of each other,
+ * are merged into one at their mean, with the coefficients summed. Exact duplicates merge without any change
+ * to the decision functions.
+ * Then the support vectors of the smallest |coefficient| are dropped, as many as possible while the accuracy
+ * on a tuning set stays within {@link #tolerance} of the original model's.
+ * The number to drop is found by bisection, taking the accuracy to fall as more are dropped.
+ * <p>
+ * The coefficients and rho of the vectors kept are refit by least squares, so that the decision values
+ * at the tuning samples and the original support vectors come as close as they can to the original ones.
+ * The accuracies reported are measured on a holdout set, not on the samples the cut was chosen on.
+ */
+public final class ModelReducer {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelReducer.class);
+
+    /**
+     * Ridge of the least squares refit, per fitted point.
+     */
+    private static final double RIDGE = 1e-6;
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * Support vectors of a class within this squared distance of each other are merged, 0 for duplicates only.
+     */
+    public double mergeDistance = 1e-6;
+
+    /**
+     * The accuracy on the tuning set the reduced model may lose.
+     */
+    public double tolerance = 0.005;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Reduce a model, tuning on the samples of even position in the validation set
+     * and reporting on those of odd position.
+     *
+     * @param model      a C_SVC or NU_SVC model of the RBF kernel
+     * @param validation samples to check the accuracy on, scaled as the training set
+     * @return the reduced model and how it compares to the original
+     */
+    public Result reduce(svm_model model, Dataset validation) {
+        Dataset tuning = new Dataset();
+        Dataset holdout = new Dataset();
+        tuning.setFeatureNum(validation.getFeatureNum());
+        holdout.setFeatureNum(validation.getFeatureNum());
+        for (int i = 0; i < validation.size(); i++) {
+            (i % 2 == 0 ? tuning : holdout).add(validation.get(i));
+        }
+        return reduce(model, tuning, holdout);
+    }
+
+    /**
+     * Reduce a model.
+     *
+     * @param model   a C_SVC or NU_SVC model of the RBF kernel
+     * @param tuning  samples to choose the vectors dropped and refit the rest on, scaled as the training set
+     * @param holdout samples to report the accuracies and speed-up on, scaled as the training set
+     * @return the reduced model and how it compares to the original
+     */
+    public Result reduce(svm_model model, Dataset tuning, Dataset holdout) {
+        if (model.param.kernel_type != svm_parameter.RBF
+                || (model.param.svm_type != svm_parameter.C_SVC && model.param.svm_type != svm_parameter.NU_SVC)) {
+            throw new IllegalArgumentException("only RBF classification models can be reduced");
+        }
+        int featureNum = CompiledModel.maxIndex(model);
+        double[][] rows = rows(tuning, featureNum);
+        double[] labels = labels(tuning);
+        double[][] holdoutRows = rows(holdout, featureNum);
+        double[] holdoutLabels = labels(holdout);
+        RBFModel original = new RBFModel(model, featureNum);
+
+        List<Vector> all = vectors(model, featureNum);
+        Refit refit = new Refit(model, original, rows, all);
+        List<Vector> vectors = merge(all);
+        int mergedNum = vectors.size();
+        double accuracy = accuracy(original, rows, labels);
+
+        // drop the least important vectors, as many as the accuracy allows
+        int[] rank = new int[vectors.size()];
+        int[] byImportance = IntStream.range(0, vectors.size()).boxed()
+                .sorted(Comparator.comparingDouble(i -> vectors.get(i).importance()))
+                .mapToInt(Integer::intValue).toArray();
+        for (int r = 0; r < byImportance.length; r++) {
+            rank[byImportance[r]] = r;
+        }
+        svm_model reduced = refit.fit(vectors);
+        int low = 0;
+        int high = vectors.size() - 1;
+        while (low < high) {
+            int dropped = (low + high + 1) / 2;
+            List<Vector> kept = new ArrayList<>(vectors.size() - dropped);
+            for (int i = 0; i < vectors.size(); i++) {
+                if (rank[i] >= dropped) {
+                    kept.add(vectors.get(i));
+                }
+            }
+            svm_model candidate = refit.fit(kept);
+            if (accuracy - accuracy(new RBFModel(candidate, featureNum), rows, labels) <= this.tolerance) {
+                low = dropped;
+                reduced = candidate;
+            } else {
+                high = dropped - 1;
+            }
+        }
+
+        // the best of a few runs, taken in turns so that both models are compiled by the JIT alike
+        CompiledModel compiled = new RBFModel(reduced, featureNum);
+        long originalNanos = Long.MAX_VALUE;
+        long nanos = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            originalNanos = Math.min(originalNanos, time(original, holdoutRows));
+            nanos = Math.min(nanos, time(compiled, holdoutRows));
+        }
+        Result result = new Result(reduced, model.l, mergedNum, accuracy(original, holdoutRows, holdoutLabels),
+                accuracy(compiled, holdoutRows, holdoutLabels), originalNanos, nanos);
+        LOGGER.info("{}", result);
+        return result;
+    }
+
+    private static double[][] rows(Dataset data, int featureNum) {
+        double[][] rows = new double[data.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = CompiledModel.toRow(data.get(i), featureNum);
+        }
+        return rows;
+    }
+
+    private static double[] labels(Dataset data) {
+        double[] labels = new double[data.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = data.get(i).getLabel();
+        }
+        return labels;
+    }
+
+    private static List<Vector> vectors(svm_model model, int featureNum) {
+        List<Vector> vectors = new ArrayList<>(model.l);
+        int k = 0;
+        for (int c = 0; c < model.nr_class; c++) {
+            for (int n = 0; n < model.nSV[c]; n++, k++) {
+                double[] values = new double[featureNum];
+                for (svm_node node : model.SV[k]) {
+                    if (node.index >= 1 && node.index <= featureNum) {
+                        values[node.index - 1] = node.value;
+                    }
+                }
+                double[] coef = new double[model.nr_class - 1];
+                for (int r = 0; r < coef.length; r++) {
+                    coef[r] = model.sv_coef[r][k];
+                }
+                vectors.add(new Vector(c, values, coef,
+                        model.sv_indices == null ? 0 : model.sv_indices[k]));
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Merge the vectors of a class within {@link #mergeDistance}, the classes stay in order.
+     */
+    private List<Vector> merge(List<Vector> vectors) {
+        List<Vector> merged = new ArrayList<>(vectors.size());
+        boolean[] absorbed = new boolean[vectors.size()];
+        for (int i = 0; i < vectors.size(); i++) {
+            if (absorbed[i]) {
+                continue;
+            }
+            Vector first = vectors.get(i);
+            double[] sum = first.values.clone();
+            double[] coef = first.coef.clone();
+            int members = 1;
+            for (int j = i + 1; j < vectors.size() && vectors.get(j).label == first.label; j++) {
+                Vector other = vectors.get(j);
+                if (!absorbed[j] && first.distance(other) <= this.mergeDistance) {
+                    absorbed[j] = true;
+                    members++;
+                    for (int f = 0; f < sum.length; f++) {
+                        sum[f] += other.values[f];
+                    }
+                    for (int r = 0; r < coef.length; r++) {
+                        coef[r] += other.coef[r];
+                    }
+                }
+            }
+            if (members == 1) {
+                merged.add(first);
+            } else {
+                for (int f = 0; f < sum.length; f++) {
+                    sum[f] /= members;
+                }
+                merged.add(new Vector(first.label, sum, coef, first.index));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * A model of the vectors, with the coefficients of every vector and the rho of every class pair given.
+     */
+    private static svm_model build(svm_model model, List<Vector> vectors, double[][] coef, double[] rho,
+                                   int featureNum) {
+        svm_model reduced = new svm_model();
+        reduced.param = (svm_parameter) model.param.clone();
+        reduced.nr_class = model.nr_class;
+        reduced.l = vectors.size();
+        reduced.rho = rho;
+        reduced.label = model.label == null ? null : model.label.clone();
+        reduced.probA = model.probA == null ? null : model.probA.clone();
+        reduced.probB = model.probB == null ? null : model.probB.clone();
+        reduced.nSV = new int[model.nr_class];
+        reduced.SV = new svm_node[reduced.l][];
+        reduced.sv_coef = new double[model.nr_class - 1][reduced.l];
+        reduced.sv_indices = new int[reduced.l];
+        for (int k = 0; k < reduced.l; k++) {
+            Vector vector = vectors.get(k);
+            reduced.nSV[vector.label]++;
+            reduced.SV[k] = new svm_node[featureNum];
+            for (int f = 0; f < featureNum; f++) {
+                reduced.SV[k][f] = new svm_node();
+                reduced.SV[k][f].index = f + 1;
+                reduced.SV[k][f].value = vector.values[f];
+            }
+            for (int r = 0; r < model.nr_class - 1; r++) {
+                reduced.sv_coef[r][k] = coef[k][r];
+            }
+            reduced.sv_indices[k] = vector.index;
+        }
+        return reduced;
+    }
+
+    private static double accuracy(CompiledModel model, double[][] rows, double[] labels) {
+        int hits = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (model.predict(rows[i]) == labels[i]) {
+                hits++;
+            }
+        }
+        return rows.length == 0 ? 0.0d : (double) hits / rows.length;
+    }
+
+    /**
+     * Nanoseconds to predict the validation rows.
+     */
+    private static long time(CompiledModel model, double[][] rows) {
+        long start = System.nanoTime();
+        for (double[] row : rows) {
+            model.predict(row);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double distance(double[] x, double[] y) {
+        double distance = 0.0d;
+        for (int f = 0; f < x.length; f++) {
+            double d = x[f] - y[f];
+            distance += d * d;
+        }
+        return distance;
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * Refits the coefficients of the vectors kept to the decision values of the original model.
+     * <p>
+     * Every class pair {@code (i, j)} has its own decision function over the vectors of classes i and j,
+     * each with its own coefficient, so the pairs are fit one by one: a ridge regression of the original
+     * decision values at the fitted points on the kernel values of the vectors, with -rho as the intercept.
+     */
+    private static final class Refit {
+        private final svm_model model;
+
+        private final int featureNum;
+
+        /**
+         * The tuning rows and the original support vectors.
+         */
+        private final double[][] points;
+
+        /**
+         * The original decision values at the points, one per class pair.
+         */
+        private final double[][] targets;
+
+        private Refit(svm_model model, RBFModel original, double[][] rows, List<Vector> vectors) {
+            this.model = model;
+            this.featureNum = original.getFeatureNum();
+            this.points = new double[rows.length + vectors.size()][];
+            System.arraycopy(rows, 0, this.points, 0, rows.length);
+            for (int k = 0; k < vectors.size(); k++) {
+                this.points[rows.length + k] = vectors.get(k).values;
+            }
+            this.targets = new double[this.points.length][original.getDecisionValueNum()];
+            for (int x = 0; x < this.points.length; x++) {
+                original.decisionValues(this.points[x], this.targets[x]);
+            }
+        }
+
+        /**
+         * @return the model of the vectors, refit if that brings its decision values closer to the original ones
+         */
+        private svm_model fit(List<Vector> vectors) {
+            int m = vectors.size();
+            double[][] kernel = new double[this.points.length][m];
+            for (int x = 0; x < this.points.length; x++) {
+                for (int k = 0; k < m; k++) {
+                    kernel[x][k] = Math.exp(-this.model.param.gamma * distance(this.points[x], vectors.get(k).values));
+                }
+            }
+            double[][] coef = new double[m][];
+            for (int k = 0; k < m; k++) {
+                coef[k] = vectors.get(k).coef.clone();
+            }
+            double[] rho = this.model.rho.clone();
+            double[][] refitCoef = new double[m][];
+            for (int k = 0; k < m; k++) {
+                refitCoef[k] = coef[k].clone();
+            }
+            double[] refitRho = rho.clone();
+
+            double error = 0.0d;
+            double refitError = 0.0d;
+            int p = 0;
+            for (int i = 0; i < this.model.nr_class; i++) {
+                for (int j = i + 1; j < this.model.nr_class; j++, p++) {
+                    List<Integer> members = new ArrayList<>();
+                    int[] column = new int[m];
+                    for (int k = 0; k < m; k++) {
+                        if (vectors.get(k).label == i || vectors.get(k).label == j) {
+                            members.add(k);
+                            column[k] = vectors.get(k).label == i ? j - 1 : i;
+                        }
+                    }
+                    int n = members.size();
+                    double[] solution = solve(kernel, members, p);
+                    if (solution != null) {
+                        for (int u = 0; u < n; u++) {
+                            int k = members.get(u);
+                            refitCoef[k][column[k]] = solution[u];
+                        }
+                        refitRho[p] = solution[n];
+                    }
+                    for (int x = 0; x < this.points.length; x++) {
+                        double value = -rho[p];
+                        double refitValue = -refitRho[p];
+                        for (int k : members) {
+                            value += coef[k][column[k]] * kernel[x][k];
+                            refitValue += refitCoef[k][column[k]] * kernel[x][k];
+                        }
+                        error += (value - this.targets[x][p]) * (value - this.targets[x][p]);
+                        refitError += (refitValue - this.targets[x][p]) * (refitValue - this.targets[x][p]);
+                    }
+                }
+            }
+            return refitError < error
+                    ? build(this.model, vectors, refitCoef, refitRho, this.featureNum)
+                    : build(this.model, vectors, coef, rho, this.featureNum);
+        }
+
+        /**
+         * Solve the normal equations of class pair p over the member columns of the kernel values.
+         *
+         * @return the coefficients of the members followed by rho, null if the equations are singular
+         */
+        private double[] solve(double[][] kernel, List<Integer> members, int p) {
+            int n = members.size();
+            double[][] a = new double[n + 1][n + 1];
+            double[] b = new double[n + 1];
+            double[] row = new double[n + 1];
+            row[n] = -1.0d;
+            for (int x = 0; x < this.points.length; x++) {
+                for (int u = 0; u < n; u++) {
+                    row[u] = kernel[x][members.get(u)];
+                }
+                double target = this.targets[x][p];
+                for (int u = 0; u <= n; u++) {
+                    b[u] += row[u] * target;
+                    for (int v = 0; v <= u; v++) {
+                        a[u][v] += row[u] * row[v];
+                    }
+                }
+            }
+            double ridge = RIDGE * this.points.length;
+            for (int u = 0; u <= n; u++) {
+                a[u][u] += ridge;
+            }
+            return cholesky(a, b);
+        }
+
+        /**
+         * Solve {@code a x = b} for a symmetric positive definite a, of which only the lower triangle is read.
+         * Both are overwritten.
+         *
+         * @return x, or null if a is not positive definite
+         */
+        private static double[] cholesky(double[][] a, double[] b) {
+            int n = b.length;
+            for (int j = 0; j < n; j++) {
+                double d = a[j][j];
+                for (int k = 0; k < j; k++) {
+                    d -= a[j][k] * a[j][k];
+                }
+                if (d <= 0.0d) {
+                    return null;
+                }
+                a[j][j] = Math.sqrt(d);
+                for (int i = j + 1; i < n; i++) {
+                    double s = a[i][j];
+                    for (int k = 0; k < j; k++) {
+                        s -= a[i][k] * a[j][k];
+                    }
+                    a[i][j] = s / a[j][j];
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                double s = b[i];
+                for (int k = 0; k < i; k++) {
+                    s -= a[i][k] * b[k];
+                }
+                b[i] = s / a[i][i];
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                double s = b[i];
+                for (int k = i + 1; k < n; k++) {
+                    s -= a[k][i] * b[k];
+                }
+                b[i] = s / a[i][i];
+            }
+            return b;
+        }
+    }
+
+    /**
+     * A support vector of a class, with its coefficients against the other classes.
+     */
+    private static final class Vector {
+        private final int label;
+
+        private final double[] values;
+
+        private final double[] coef;
+
+        /**
+         * Index of the training sample, as {@code svm_model.sv_indices}.
+         */
+        private final int index;
+
+        private Vector(int label, double[] values, double[] coef, int index) {
+            this.label = label;
+            this.values = values;
+            this.coef = coef;
+            this.index = index;
+        }
+
+        private double distance(Vector other) {
+            return ModelReducer.distance(this.values, other.values);
+        }
+
+        private double importance() {
+            double importance = 0.0d;
+            for (double c : this.coef) {
+                importance = Math.max(importance, Math.abs(c));
+            }
+            return importance;
+        }
+    }
+
+    /**
+     * A reduced model and how it compares to the original one.
+     */
+    public static final class Result {
+        private final svm_model model;
+
+        private final int originalSVNum;
+
+        private final int mergedSVNum;
+
+        private final double originalAccuracy;
+
+        private final double accuracy;
+
+        private final long originalNanos;
+
+        private final long nanos;
+
+        private Result(svm_model model, int originalSVNum, int mergedSVNum, double originalAccuracy,
+                       double accuracy, long originalNanos, long nanos) {
+            this.model = model;
+            this.originalSVNum = originalSVNum;
+            this.mergedSVNum = mergedSVNum;
+            this.originalAccuracy = originalAccuracy;
+            this.accuracy = accuracy;
+            this.originalNanos = originalNanos;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the reduced model
+         */
+        public svm_model getModel() {
+            return this.model;
+        }
+
+        public int getOriginalSVNum() {
+            return this.originalSVNum;
+        }
+
+        /**
+         * @return the number of support vectors left after merging
+         */
+        public int getMergedSVNum() {
+            return this.mergedSVNum;
+        }
+
+        public int getSVNum() {
+            return this.model.l;
+        }
+
+        /**
+         * @return the accuracy of the original model on the holdout set
+         */
+        public double getOriginalAccuracy() {
+            return this.originalAccuracy;
+        }
+
+        /**
+         * @return the accuracy of the reduced model on the holdout set
+         */
+        public double getAccuracy() {
+            return this.accuracy;
+        }
+
+        /**
+         * @return how many times faster the reduced model predicts the holdout set
+         */
+        public double getSpeedUp() {
+            return this.nanos == 0 ? 1.0d : (double) this.originalNanos / this.nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "support vectors: " + this.originalSVNum + " -> " + this.mergedSVNum + " merged -> "
+                    + this.model.l + " kept; accuracy: " + String.format("%.4f", this.originalAccuracy)
+                    + " -> " + String.format("%.4f", this.accuracy)
+                    + "; speed-up: " + String.format("%.2f", getSpeedUp()) + "x";
+        }
+    }
+}
+
+// End ModelReducer.java
@@ -0,0 +1,314 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled models by name and version.
+ * <p>
+ * Every name has an active version, {@link #get(String)} returns its model without locks.
+ * Registering a new version swaps it in atomically once it is loaded,
+ * predictions holding the old model finish on it.
+ * <p>
+ * Models registered from files are loaded by {@link ModelFile#load}.
+ * When the loaded models take more than the memory budget,
+ * the least recently used ones are dropped and loaded again on their next use.
+ * Models published as objects have no file to load from, they are never dropped.
+ */
+public final class ModelRegistry {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelRegistry.class);
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final long memoryBudget;
+
+    /**
+     * Every registered version, by "name@version".
+     */
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * The active version of every name.
+     * Changed together with {@link #slots} while holding the lock of this registry,
+     * so that the active version always has a slot; reads take no lock.
+     */
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong loadedBytes = new AtomicLong();
+
+    private final AtomicLong loadCount = new AtomicLong();
+
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * @param memoryBudget bytes the loaded models may take, see {@link CompiledModel#estimateBytes()}
+     */
+    public ModelRegistry(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    private static String key(String name, long version) {
+        return name + '@' + version;
+    }
+
+    /**
+     * Load a model file and make it the active version of its name.
+     *
+     * @param name      name of the model
+     * @param version   version of the model
+     * @param modelFile a binary or libsvm text model file
+     * @throws IOException if failed to load the model
+     */
+    public void register(String name, long version, String modelFile) throws IOException {
+        Slot slot = new Slot(name, version, modelFile);
+        try {
+            slot.load();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        install(slot);
+    }
+
+    /**
+     * Make a compiled model the active version of its name.
+     *
+     * @param name    name of the model
+     * @param version version of the model
+     * @param model   the model, kept until removed
+     */
+    public void publish(String name, long version, CompiledModel model) {
+        Slot slot = new Slot(name, version, null);
+        slot.model = model;
+        slot.bytes = model.estimateBytes();
+        this.loadedBytes.addAndGet(slot.bytes);
+        install(slot);
+    }
+
+    private synchronized void install(Slot slot) {
+        slot.lastUse = System.nanoTime();
+        Slot old = this.slots.put(key(slot.name, slot.version), slot);
+        if (old != null) {
+            old.drop();
+        }
+        this.versions.put(slot.name, slot.version);
+        LOGGER.info("model {} version {} active", slot.name, slot.version);
+        evict(slot);
+    }
+
+    /**
+     * Make a registered version the active one, e.g. to roll back.
+     *
+     * @param name    name of the model
+     * @param version a registered version
+     * @return false if the version is not registered
+     */
+    public synchronized boolean activate(String name, long version) {
+        if (!this.slots.containsKey(key(name, version))) {
+            return false;
+        }
+        this.versions.put(name, version);
+        LOGGER.info("model {} version {} active", name, version);
+        return true;
+    }
+
+    /**
+     * Forget a version, the active version of a name cannot be removed.
+     *
+     * @param name    name of the model
+     * @param version the version
+     * @return false if the version is not registered or active
+     */
+    public synchronized boolean remove(String name, long version) {
+        Long active = this.versions.get(name);
+        if (active != null && active == version) {
+            return false;
+        }
+        Slot slot = this.slots.remove(key(name, version));
+        if (slot == null) {
+            return false;
+        }
+        slot.drop();
+        return true;
+    }
+
+    /**
+     * The model of the active version of a name.
+     *
+     * @param name name of the model
+     * @return the model, or null if the name is not registered
+     * @throws UncheckedIOException if the model was dropped and failed to load again
+     */
+    public CompiledModel get(String name) {
+        Long version = this.versions.get(name);
+        return version == null ? null : get(name, version);
+    }
+
+    /**
+     * The model of a version.
+     *
+     * @param name    name of the model
+     * @param version the version
+     * @return the model, or null if the version is not registered
+     * @throws UncheckedIOException if the model was dropped and failed to load again
+     */
+    public CompiledModel get(String name, long version) {
+        Slot slot = this.slots.get(key(name, version));
+        if (slot == null) {
+            return null;
+        }
+        slot.lastUse = System.nanoTime();
+        CompiledModel model = slot.model;
+        if (model == null) {
+            model = slot.load();
+            evict(slot);
+        }
+        return model;
+    }
+
+    /**
+     * @param name name of the model
+     * @return the active version, or -1 if the name is not registered
+     */
+    public long getVersion(String name) {
+        return this.versions.getOrDefault(name, -1L);
+    }
+
+    /**
+     * Drop the least recently used models until the loaded ones fit in the budget.
+     *
+     * @param keep the model just used, never dropped
+     */
+    private synchronized void evict(Slot keep) {
+        while (this.loadedBytes.get() > this.memoryBudget) {
+            Slot victim = null;
+            for (Slot slot : this.slots.values()) {
+                if (slot != keep && slot.file != null && slot.model != null
+                        && (victim == null || slot.lastUse < victim.lastUse)) {
+                    victim = slot;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            victim.drop();
+            this.evictionCount.incrementAndGet();
+            LOGGER.info("model {} version {} evicted, {} bytes loaded", victim.name, victim.version,
+                    this.loadedBytes.get());
+        }
+    }
+
+    /**
+     * @return the number of models loaded from files, including loads after eviction
+     */
+    public long getLoadCount() {
+        return this.loadCount.get();
+    }
+
+    /**
+     * @return time spent loading models, in milliseconds
+     */
+    public long getLoadMillis() {
+        return this.loadNanos.get() / 1000000L;
+    }
+
+    /**
+     * @return the number of models dropped to keep in the budget
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * @return bytes taken by the loaded models
+     */
+    public long getLoadedBytes() {
+        return this.loadedBytes.get();
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * A registered version, with its model if loaded.
+     */
+    private final class Slot {
+        private final String name;
+
+        private final long version;
+
+        /**
+         * File to load the model from, null if published as an object.
+         */
+        private final String file;
+
+        private volatile CompiledModel model;
+
+        private long bytes;
+
+        private volatile long lastUse;
+
+        private Slot(String name, long version, String file) {
+            this.name = name;
+            this.version = version;
+            this.file = file;
+        }
+
+        private synchronized CompiledModel load() {
+            if (this.model != null) {
+                return this.model;
+            }
+            long start = System.nanoTime();
+            CompiledModel model;
+            try {
+                model = ModelFile.load(this.file);
+            } catch (IOException e) {
+                LOGGER.error("load model {} version {} from {} failed!", this.name, this.version, this.file);
+                throw new UncheckedIOException(e);
+            }
+            long nanos = System.nanoTime() - start;
+            this.bytes = model.estimateBytes();
+            this.model = model;
+            loadedBytes.addAndGet(this.bytes);
+            loadCount.incrementAndGet();
+            loadNanos.addAndGet(nanos);
+            LOGGER.info("model {} version {} loaded in {} ms, {} bytes", this.name, this.version,
+                    nanos / 1000000L, this.bytes);
+            return model;
+        }
+
+        private synchronized void drop() {
+            if (this.model != null) {
+                this.model = null;
+                loadedBytes.addAndGet(-this.bytes);
+            }
+        }
+    }
+}
+
+// End ModelRegistry.java
@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import data.Sample;
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A bounded cache of predictions, for data where the same feature vectors come again and again.
+ * <p>
+ * A prediction is keyed by the model version and the scaled feature vector,
+ * the vector is compared in full so that a hash collision never returns the label of another vector.
+ * The least recently used predictions are dropped when the cache is full.
+ * Any number of threads may share a cache.
+ */
+public final class PredictionCache {
+    //~ Instance fields --------------------------------------------------------
+
+    private final Cache<Key, Double> predictions;
+
+    /**
+     * Versions of the models given as {@link svm_model}s, by identity.
+     */
+    private final LoadingCache<svm_model, Long> versions;
+
+    private final AtomicLong lastVersion = new AtomicLong();
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * @param maximumSize the number of predictions kept
+     */
+    public PredictionCache(long maximumSize) {
+        this.predictions = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        this.versions = CacheBuilder.newBuilder()
+                .weakKeys()
+                .build(new CacheLoader<svm_model, Long>() {
+                    @Override
+                    public Long load(svm_model model) {
+                        return lastVersion.decrementAndGet();
+                    }
+                });
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Predict a dense feature row, or take the prediction of an equal row of the same model version.
+     *
+     * @param version   the model version, e.g. of a {@link ModelRegistry}
+     * @param row       the dense feature row, scaled as the training set, it is copied on a miss
+     * @param predictor predicts the row on a miss
+     * @return the predict label of the row
+     */
+    public double predict(long version, double[] row, ToDoubleFunction<double[]> predictor) {
+        Key key = new Key(version, row);
+        Double label = this.predictions.getIfPresent(key);
+        if (label == null) {
+            // two threads missing the same row both predict it, the results are the same
+            label = predictor.applyAsDouble(row);
+            this.predictions.put(new Key(version, row.clone()), label);
+        }
+        return label;
+    }
+
+    /**
+     * Predict a sample by libsvm, or take the prediction of an equal sample.
+     * The models are told apart by identity, a model must not be changed once predicted.
+     *
+     * @param model  trained model
+     * @param sample sample to be predicted, scaled as the training set
+     * @return the predict label of the sample
+     */
+    public double predict(svm_model model, Sample sample) {
+        return predict(model, sample, x -> svm.svm_predict(model, x));
+    }
+
+    /**
+     * Predict a sample by the given predictor, or take the prediction of an equal sample.
+     *
+     * @param model     trained model, it versions the predictions
+     * @param sample    sample to be predicted, scaled as the training set
+     * @param predictor predicts the feature array of the sample on a miss
+     * @return the predict label of the sample
+     */
+    public double predict(svm_model model, Sample sample, ToDoubleFunction<svm_node[]> predictor) {
+        svm_node[] x = sample.getFeatureArray();
+        return predict(version(model), values(x), row -> predictor.applyAsDouble(x));
+    }
+
+    /**
+     * The version of a model without one, negative so that it never equals a version of a {@link ModelRegistry}.
+     *
+     * @param model a model
+     * @return the same version for the same model object
+     */
+    public long version(svm_model model) {
+        return this.versions.getUnchecked(model);
+    }
+
+    /**
+     * The feature values of a sample by index, missing features are 0 as they are to the kernels.
+     */
+    private static double[] values(svm_node[] x) {
+        int length = 0;
+        for (svm_node node : x) {
+            length = Math.max(length, node.index);
+        }
+        double[] row = new double[length];
+        for (svm_node node : x) {
+            if (node.index >= 1) {
+                row[node.index - 1] = node.value;
+            }
+        }
+        return row;
+    }
+
+    public long getHitCount() {
+        return this.predictions.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return this.predictions.stats().missCount();
+    }
+
+    public double getHitRate() {
+        return this.predictions.stats().hitRate();
+    }
+
+    /**
+     * @return the number of predictions kept
+     */
+    public long size() {
+        return this.predictions.size();
+    }
+
+    /**
+     * Drop all predictions.
+     */
+    public void clear() {
+        this.predictions.invalidateAll();
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    private static final class Key {
+        private final long version;
+
+        private final double[] row;
+
+        private final int hash;
+
+        private Key(long version, double[] row) {
+            this.version = version;
+            this.row = row;
+            this.hash = 31 * Long.hashCode(version) + Arrays.hashCode(row);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.hash == other.hash && this.version == other.version && Arrays.equals(this.row, other.row);
+        }
+    }
+}
+
+// End PredictionCache.java
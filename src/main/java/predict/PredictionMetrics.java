@@ -0,0 +1,416 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics of the prediction path: calls, latency percentiles, kernel values per call and cache hit rates.
+ * <p>
+ * The metrics are off by default. While off, an instrumented call costs one read of a volatile flag,
+ * it neither reads the clock nor touches a counter.
+ * When on, they can be watched through JMX, see {@link #registerJmx()},
+ * and pushed to a {@link MetricsReporter} periodically, see {@link #startReporting}.
+ * The counters are cumulative since the start of the process.
+ */
+public final class PredictionMetrics {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PredictionMetrics.class);
+
+    private static final String DOMAIN = "customs.svm";
+
+    private static volatile boolean enabled = false;
+
+    private static volatile boolean jmx = false;
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    private static final Map<String, DoubleSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService reporting;
+
+    //~ Constructors -----------------------------------------------------------
+
+    private PredictionMetrics() {
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * @return whether the instrumented calls record their metrics
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PredictionMetrics.enabled = enabled;
+    }
+
+    /**
+     * The timer of a name, created on first use.
+     *
+     * @param name e.g. {@code svm.predict}
+     * @return the timer
+     */
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, n -> {
+            Timer timer = new Timer();
+            if (jmx) {
+                register("timer", n, timer, TimerMXBean.class);
+            }
+            return timer;
+        });
+    }
+
+    /**
+     * Report a value under a name, replacing the gauge of the same name if any.
+     *
+     * @param name  e.g. {@code svm.predict.cache.hitRate}
+     * @param gauge reads the value, from any thread
+     */
+    public static void gauge(String name, DoubleSupplier gauge) {
+        if (GAUGES.put(name, gauge) == null && jmx) {
+            register("gauge", name, gaugeBean(name), GaugeMXBean.class);
+        }
+    }
+
+    /**
+     * Report the hit rate, hits and misses of a prediction cache as gauges {@code <name>.hitRate} and so on.
+     *
+     * @param name  name of the cache
+     * @param cache the cache
+     */
+    public static void gauges(String name, PredictionCache cache) {
+        gauge(name + ".hitRate", cache::getHitRate);
+        gauge(name + ".hits", cache::getHitCount);
+        gauge(name + ".misses", cache::getMissCount);
+    }
+
+    /**
+     * Report the loads, evictions and loaded bytes of a model registry as gauges {@code <name>.loads} and so on.
+     *
+     * @param name     name of the registry
+     * @param registry the registry
+     */
+    public static void gauges(String name, ModelRegistry registry) {
+        gauge(name + ".loads", registry::getLoadCount);
+        gauge(name + ".loadMillis", registry::getLoadMillis);
+        gauge(name + ".evictions", registry::getEvictionCount);
+        gauge(name + ".loadedBytes", registry::getLoadedBytes);
+    }
+
+    /**
+     * Remove the gauges {@code <name>.*}, e.g. those of a discarded cache, so that it is no longer kept reachable.
+     *
+     * @param name name the gauges were reported under
+     */
+    public static void removeGauges(String name) {
+        for (String gauge : GAUGES.keySet()) {
+            if (gauge.startsWith(name + ".") && GAUGES.remove(gauge) != null && jmx) {
+                unregister("gauge", gauge);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of every timer, by name
+     */
+    public static Map<String, Snapshot> snapshots() {
+        Map<String, Snapshot> snapshots = new TreeMap<>();
+        TIMERS.forEach((name, timer) -> snapshots.put(name, timer.snapshot()));
+        return snapshots;
+    }
+
+    /**
+     * @return the value of every gauge, by name
+     */
+    public static Map<String, Double> gaugeValues() {
+        Map<String, Double> values = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> values.put(name, gauge.getAsDouble()));
+        return values;
+    }
+
+    /**
+     * Register every timer and gauge, and those to come, as MXBeans in the platform MBean server,
+     * named {@code customs.svm:type=timer,name=<name>} and {@code customs.svm:type=gauge,name=<name>}.
+     */
+    public static synchronized void registerJmx() {
+        if (jmx) {
+            return;
+        }
+        jmx = true;
+        TIMERS.forEach((name, timer) -> register("timer", name, timer, TimerMXBean.class));
+        GAUGES.keySet().forEach(name -> register("gauge", name, gaugeBean(name), GaugeMXBean.class));
+    }
+
+    /**
+     * A bean reading whatever gauge has the name now.
+     */
+    private static GaugeMXBean gaugeBean(String name) {
+        return () -> GAUGES.getOrDefault(name, () -> Double.NaN).getAsDouble();
+    }
+
+    private static <T> void register(String type, String name, T bean, Class<T> view) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(bean, view, true), objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.error("register {} {} to JMX failed!", type, name, e);
+        }
+    }
+
+    private static void unregister(String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.error("unregister {} {} from JMX failed!", type, name, e);
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) throws JMException {
+        Hashtable<String, String> properties = new Hashtable<>();
+        properties.put("type", type);
+        properties.put("name", ObjectName.quote(name));
+        return new ObjectName(DOMAIN, properties);
+    }
+
+    /**
+     * Push the metrics to a reporter periodically, on a daemon thread, until {@link #stopReporting()}.
+     *
+     * @param reporter the reporter
+     * @param period   time between reports
+     * @param unit     unit of the period
+     */
+    public static synchronized void startReporting(MetricsReporter reporter, long period, TimeUnit unit) {
+        if (reporting == null) {
+            reporting = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "prediction-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        reporting.scheduleAtFixedRate(() -> {
+            try {
+                reporter.report(snapshots(), gaugeValues());
+            } catch (RuntimeException e) {
+                LOGGER.error("report prediction metrics failed!", e);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stop all reporters.
+     */
+    public static synchronized void stopReporting() {
+        if (reporting != null) {
+            reporting.shutdownNow();
+            reporting = null;
+        }
+    }
+
+    /**
+     * A reporter writing every timer and gauge to the log at info level.
+     *
+     * @return the reporter
+     */
+    public static MetricsReporter logReporter() {
+        return (timers, gauges) -> {
+            timers.forEach((name, snapshot) -> LOGGER.info("{}: {}", name, snapshot));
+            gauges.forEach((name, value) -> LOGGER.info("{}: {}", name, value));
+        };
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * The JMX view of a timer.
+     */
+    public interface TimerMXBean {
+        long getCount();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+
+        double getKernelsPerCall();
+    }
+
+    /**
+     * The JMX view of a gauge.
+     */
+    public interface GaugeMXBean {
+        double getValue();
+    }
+
+    /**
+     * Calls of an instrumented method: their number, latencies and the kernel values they computed.
+     */
+    public static final class Timer implements TimerMXBean {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        private final LongAdder kernels = new LongAdder();
+
+        private Timer() {
+        }
+
+        /**
+         * @param nanos   duration of the call
+         * @param kernels kernel values, i.e. support vectors, the call computed
+         */
+        public void record(long nanos, long kernels) {
+            this.latencies.record(nanos);
+            this.kernels.add(kernels);
+        }
+
+        @Override
+        public long getCount() {
+            return this.latencies.getCount();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return this.latencies.getMean() / 1000.0d;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return this.latencies.getPercentile(0.5d) / 1000.0d;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return this.latencies.getPercentile(0.99d) / 1000.0d;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return this.latencies.getPercentile(0.999d) / 1000.0d;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return this.latencies.getMax() / 1000.0d;
+        }
+
+        @Override
+        public double getKernelsPerCall() {
+            long count = getCount();
+            return count == 0 ? 0.0d : (double) this.kernels.sum() / count;
+        }
+
+        public Snapshot snapshot() {
+            return new Snapshot(getCount(), getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(),
+                    getMaxMicros(), getKernelsPerCall());
+        }
+    }
+
+    /**
+     * The values of a timer at a moment, latencies in microseconds.
+     */
+    public static final class Snapshot {
+        private final long count;
+
+        private final double mean;
+
+        private final double p50;
+
+        private final double p99;
+
+        private final double p999;
+
+        private final double max;
+
+        private final double kernelsPerCall;
+
+        private Snapshot(long count, double mean, double p50, double p99, double p999, double max,
+                         double kernelsPerCall) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+            this.kernelsPerCall = kernelsPerCall;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMean() {
+            return this.mean;
+        }
+
+        public double getP50() {
+            return this.p50;
+        }
+
+        public double getP99() {
+            return this.p99;
+        }
+
+        public double getP999() {
+            return this.p999;
+        }
+
+        public double getMax() {
+            return this.max;
+        }
+
+        public double getKernelsPerCall() {
+            return this.kernelsPerCall;
+        }
+
+        @Override
+        public String toString() {
+            return "calls: " + this.count + "; latency us: mean " + String.format("%.1f", this.mean)
+                    + ", p50 " + String.format("%.1f", this.p50) + ", p99 " + String.format("%.1f", this.p99)
+                    + ", p999 " + String.format("%.1f", this.p999) + ", max " + String.format("%.1f", this.max)
+                    + "; kernels per call: " + String.format("%.1f", this.kernelsPerCall);
+        }
+    }
+}
+
+// End PredictionMetrics.java
@@ -0,0 +1,599 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An HTTP endpoint predicting with the models of a {@link ModelRegistry}, on the JDK http server.
+ * <p>
+ * {@code POST /predict/<name>} takes one dense feature row per line, either {@code value value ...}
+ * or {@code index:value index:value ...}, and answers one line per row with the predicted label
+ * followed by the decision values. Rows are scaled as the model expects, see {@link CompiledModel#scaledBy}.
+ * {@code GET /stats} lists the counters of every model.
+ * Neither is authenticated, so the server listens on the loopback address unless given another,
+ * see {@link #start(InetAddress, int)}.
+ * <p>
+ * The requests of a model are collected into micro batches: a batch is scored as soon as it has
+ * {@link #batchSize} rows, or {@link #maxDelayMicros} after its first request came, whichever is first.
+ * Every batch takes the active version of the model, so a version registered meanwhile takes over
+ * from the next batch on.
+ * <p>
+ * A request of more than {@link #maxRows} rows or {@link #maxRequestBytes} bytes is answered 413,
+ * one finding {@link #maxQueuedRequests} requests of its model waiting is answered 503.
+ */
+public final class PredictionServer implements AutoCloseable {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PredictionServer.class);
+
+    private static final String PREDICT = "/predict/";
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * The number of rows a batch is scored at.
+     */
+    public int batchSize = 256;
+
+    /**
+     * The longest a request waits for others to join its batch, in microseconds.
+     */
+    public long maxDelayMicros = 1000;
+
+    /**
+     * The number of threads serving connections, a request holds one until its batch is scored.
+     */
+    public int handlerThreads = 32;
+
+    /**
+     * The number of requests of a model that may wait for a batch, more are turned away.
+     * Set it before the first request of a model.
+     */
+    public int maxQueuedRequests = 1024;
+
+    /**
+     * The most rows a request may have.
+     */
+    public int maxRows = 4096;
+
+    /**
+     * The most bytes the body of a request may have.
+     */
+    public long maxRequestBytes = 16L << 20;
+
+    private final ModelRegistry registry;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+
+    private ExecutorService handlers;
+
+    private volatile boolean running;
+
+    /**
+     * The number of requests being handled.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * @param registry the models to predict with, by name
+     */
+    public PredictionServer(ModelRegistry registry) {
+        this.registry = registry;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Serve models from the command line.
+     * <p>
+     * Usage: {@code java -cp <classpath> predict.PredictionServer <port> <name>=<model file> ...}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: predict.PredictionServer <port> <name>=<model file> ...");
+            return;
+        }
+        ModelRegistry registry = new ModelRegistry(Long.MAX_VALUE);
+        for (int i = 1; i < args.length; i++) {
+            String[] model = args[i].split("=", 2);
+            registry.register(model[0], 1, model[1]);
+        }
+        int port = new PredictionServer(registry).start(Integer.parseInt(args[0]));
+        System.out.println("serving on port " + port);
+    }
+
+    /**
+     * Start serving on the loopback address.
+     *
+     * @param port the port to listen on, 0 for any free one
+     * @return the port listened on
+     * @throws IOException if failed to listen
+     */
+    public int start(int port) throws IOException {
+        return start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Start serving on an address. The endpoints have no authentication,
+     * bind an address other than the loopback one only to serve other hosts of a trusted network.
+     *
+     * @param bindAddress the address to listen on
+     * @param port        the port to listen on, 0 for any free one
+     * @return the port listened on
+     * @throws IOException           if failed to listen
+     * @throws IllegalStateException if already serving
+     */
+    public synchronized int start(InetAddress bindAddress, int port) throws IOException {
+        if (this.server != null) {
+            throw new IllegalStateException("prediction server already started");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        this.handlers = Executors.newFixedThreadPool(this.handlerThreads, r -> {
+            Thread thread = new Thread(r, "prediction-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.handlers);
+        this.server.createContext(PREDICT, this::predict);
+        this.server.createContext("/stats", this::stats);
+        this.running = true;
+        this.server.start();
+        LOGGER.info("prediction server listening on {}", this.server.getAddress());
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving, the requests waiting for a batch are answered 503.
+     * The server may be started again, with new counters.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.server == null) {
+            return;
+        }
+        this.running = false;
+        for (Endpoint endpoint : this.endpoints.values()) {
+            endpoint.batcher.interrupt();
+        }
+        // up to a second for the handlers to answer their cancelled requests
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        try {
+            while (this.inFlight.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.server.stop(0);
+        this.handlers.shutdownNow();
+        // their batchers are stopped, the next start creates new ones
+        this.endpoints.clear();
+        this.server = null;
+    }
+
+    private void predict(HttpExchange exchange) throws IOException {
+        this.inFlight.incrementAndGet();
+        try {
+            predict(exchange, System.nanoTime());
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+
+    private void predict(HttpExchange exchange, long start) throws IOException {
+        String name = exchange.getRequestURI().getPath().substring(PREDICT.length());
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "use POST\n");
+            return;
+        }
+        CompiledModel model;
+        try {
+            model = this.registry.get(name);
+        } catch (UncheckedIOException e) {
+            respond(exchange, 500, "failed to load model " + name + "\n");
+            return;
+        }
+        if (model == null) {
+            respond(exchange, 404, "no model " + name + "\n");
+            return;
+        }
+        Endpoint endpoint = this.endpoints.computeIfAbsent(name, Endpoint::new);
+
+        Request request;
+        try {
+            request = parse(exchange, model.getFeatureNum());
+        } catch (TooLargeException e) {
+            endpoint.errors.increment();
+            respond(exchange, 413, e.getMessage() + "\n");
+            return;
+        } catch (IllegalArgumentException e) {
+            endpoint.errors.increment();
+            respond(exchange, 400, e.getMessage() + "\n");
+            return;
+        }
+        if (!endpoint.queue.offer(request)) {
+            endpoint.errors.increment();
+            respond(exchange, 503, "too many requests waiting for " + name + "\n");
+            return;
+        }
+        if (!this.running) {
+            // the batcher may have stopped before the request was queued
+            request.result.cancel(false);
+        }
+        try {
+            respond(exchange, 200, request.result.get());
+            endpoint.count(request.rows.size(), System.nanoTime() - start, model.kernelsPerRow());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            endpoint.errors.increment();
+            respond(exchange, 503, "server stopped\n");
+        } catch (CancellationException e) {
+            endpoint.errors.increment();
+            respond(exchange, 503, "server stopped\n");
+        } catch (ExecutionException e) {
+            endpoint.errors.increment();
+            respond(exchange, 500, e.getCause().getMessage() + "\n");
+        }
+    }
+
+    /**
+     * Read the rows of a request, up to {@link #maxRows} rows and {@link #maxRequestBytes} bytes.
+     *
+     * @throws TooLargeException        if the request has more
+     * @throws IllegalArgumentException if a feature is not a number
+     */
+    private Request parse(HttpExchange exchange, int featureNum) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        List<Double> tailNorms = new ArrayList<>();
+        // one byte more than allowed tells a body too large from one just large enough
+        CountingInputStream body = new CountingInputStream(
+                ByteStreams.limit(exchange.getRequestBody(), this.maxRequestBytes + 1));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); ; line = reader.readLine()) {
+                if (body.getCount() > this.maxRequestBytes) {
+                    throw new TooLargeException("more than " + this.maxRequestBytes + " bytes");
+                }
+                if (line == null) {
+                    break;
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (rows.size() == this.maxRows) {
+                    throw new TooLargeException("more than " + this.maxRows + " rows");
+                }
+                double[] row = new double[featureNum];
+                double tailNorm = 0.0d;
+                String[] values = line.split("\\s+");
+                for (int i = 0; i < values.length; i++) {
+                    int colon = values[i].indexOf(':');
+                    try {
+                        int index = colon < 0 ? i + 1 : Integer.parseInt(values[i].substring(0, colon));
+                        double value = Double.parseDouble(values[i].substring(colon + 1));
+                        if (index >= 1 && index <= featureNum) {
+                            row[index - 1] = value;
+                        } else if (index > featureNum) {
+                            // no support vector has it, but the RBF distances still do
+                            tailNorm += value * value;
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("bad feature '" + values[i] + "' in row "
+                                + (rows.size() + 1));
+                    }
+                }
+                rows.add(row);
+                tailNorms.add(tailNorm);
+            }
+        }
+        return new Request(rows, tailNorms);
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        StringBuilder body = new StringBuilder("model requests rows batches errors mean_latency_us max_latency_us\n");
+        for (Endpoint endpoint : this.endpoints.values()) {
+            body.append(endpoint).append('\n');
+        }
+        respond(exchange, 200, body.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Collect the requests of an endpoint into batches and score them, until the server stops.
+     */
+    private void batch(Endpoint endpoint) {
+        List<Request> batch = new ArrayList<>();
+        try {
+            while (this.running) {
+                Request first = endpoint.queue.take();
+                batch.add(first);
+                int rows = first.rows.size();
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(this.maxDelayMicros);
+                while (rows < this.batchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Request next = wait > 0 ? endpoint.queue.poll(wait, TimeUnit.NANOSECONDS) : endpoint.queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    rows += next.rows.size();
+                }
+                score(endpoint, batch, rows);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+        for (Request request : batch) {
+            request.result.cancel(false);
+        }
+        for (Request request = endpoint.queue.poll(); request != null; request = endpoint.queue.poll()) {
+            request.result.cancel(false);
+        }
+    }
+
+    /**
+     * Score a batch with the active version of the model, block by block, see {@link BatchPredictor}.
+     */
+    private void score(Endpoint endpoint, List<Request> batch, int rowNum) {
+        try {
+            CompiledModel model = this.registry.get(endpoint.name);
+            if (model == null) {
+                throw new IllegalStateException("model " + endpoint.name + " was removed");
+            }
+            double[][] rows = new double[rowNum][];
+            double[] tailNorms = new double[rowNum];
+            int r = 0;
+            for (Request request : batch) {
+                for (int k = 0; k < request.rows.size(); k++, r++) {
+                    double[] row = request.rows.get(k);
+                    tailNorms[r] = request.tailNorms.get(k);
+                    // a version of another length may have been registered since the request was parsed
+                    if (row.length != model.getFeatureNum()) {
+                        tailNorms[r] += CompiledModel.tailNorm(row, model.getFeatureNum());
+                        row = Arrays.copyOf(row, model.getFeatureNum());
+                    }
+                    rows[r] = row;
+                }
+            }
+            double[][] decValues = new double[rowNum][model.getDecisionValueNum()];
+            double[][] block = new double[BatchPredictor.BLOCK_SIZE][];
+            double[][] blockDecValues = new double[BatchPredictor.BLOCK_SIZE][];
+            double[] blockTailNorms = new double[BatchPredictor.BLOCK_SIZE];
+            for (int start = 0; start < rowNum; start += BatchPredictor.BLOCK_SIZE) {
+                int count = Math.min(BatchPredictor.BLOCK_SIZE, rowNum - start);
+                System.arraycopy(rows, start, block, 0, count);
+                System.arraycopy(decValues, start, blockDecValues, 0, count);
+                System.arraycopy(tailNorms, start, blockTailNorms, 0, count);
+                model.decisionValues(block, count, blockTailNorms, blockDecValues);
+            }
+            endpoint.batches.increment();
+
+            r = 0;
+            for (Request request : batch) {
+                StringBuilder result = new StringBuilder();
+                for (int k = 0; k < request.rows.size(); k++, r++) {
+                    result.append(model.decide(decValues[r]));
+                    for (double decValue : decValues[r]) {
+                        result.append(' ').append(decValue);
+                    }
+                    result.append('\n');
+                }
+                request.result.complete(result.toString());
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("scoring a batch of model {} failed!", endpoint.name, e);
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @param name name of a model
+     * @return the counters of the model, null if it has not been requested
+     */
+    public Stats getStats(String name) {
+        return this.endpoints.get(name);
+    }
+
+    //~ Inner classes ----------------------------------------------------------
+
+    /**
+     * Counters of an endpoint.
+     */
+    public interface Stats {
+        /**
+         * @return the number of requests answered
+         */
+        long getRequests();
+
+        /**
+         * @return the number of rows predicted
+         */
+        long getRows();
+
+        /**
+         * @return the number of batches scored
+         */
+        long getBatches();
+
+        /**
+         * @return the number of requests failed
+         */
+        long getErrors();
+
+        /**
+         * @return the mean time from receiving a request to answering it, in microseconds
+         */
+        double getMeanLatencyMicros();
+
+        /**
+         * @return the longest time from receiving a request to answering it, in microseconds
+         */
+        long getMaxLatencyMicros();
+    }
+
+    private final class Endpoint implements Stats {
+        private final String name;
+
+        private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>(maxQueuedRequests);
+
+        private final Thread batcher;
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder rows = new LongAdder();
+
+        private final LongAdder batches = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder latencyNanos = new LongAdder();
+
+        private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+
+        /**
+         * The requests as {@link PredictionMetrics} timer {@code server.<name>}.
+         */
+        private final PredictionMetrics.Timer timer;
+
+        private Endpoint(String name) {
+            this.name = name;
+            this.timer = PredictionMetrics.timer("server." + name);
+            this.batcher = new Thread(() -> batch(this), "prediction-batcher-" + name);
+            this.batcher.setDaemon(true);
+            this.batcher.start();
+        }
+
+        private void count(int rowNum, long nanos, int kernelsPerRow) {
+            this.requests.increment();
+            this.rows.add(rowNum);
+            this.latencyNanos.add(nanos);
+            this.maxLatencyNanos.accumulate(nanos);
+            if (PredictionMetrics.isEnabled()) {
+                this.timer.record(nanos, (long) rowNum * kernelsPerRow);
+            }
+        }
+
+        @Override
+        public long getRequests() {
+            return this.requests.sum();
+        }
+
+        @Override
+        public long getRows() {
+            return this.rows.sum();
+        }
+
+        @Override
+        public long getBatches() {
+            return this.batches.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return this.errors.sum();
+        }
+
+        @Override
+        public double getMeanLatencyMicros() {
+            long requests = getRequests();
+            return requests == 0 ? 0.0d : this.latencyNanos.sum() / 1000.0d / requests;
+        }
+
+        @Override
+        public long getMaxLatencyMicros() {
+            return this.maxLatencyNanos.get() / 1000L;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + ' ' + getRequests() + ' ' + getRows() + ' ' + getBatches() + ' ' + getErrors()
+                    + ' ' + String.format("%.1f", getMeanLatencyMicros()) + ' ' + getMaxLatencyMicros();
+        }
+    }
+
+    /**
+     * A request of more rows or bytes than allowed.
+     */
+    private static final class TooLargeException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Request {
+        private final List<double[]> rows;
+
+        /**
+         * The sum of the squared values of the features of every row beyond the model, see {@link CompiledModel#toRow}.
+         */
+        private final List<Double> tailNorms;
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private Request(List<double[]> rows, List<Double> tailNorms) {
+            this.rows = rows;
+            this.tailNorms = tailNorms;
+        }
+    }
+}
+
+// End PredictionServer.java
@@ -0,0 +1,232 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.Dataset;
+import data.Sample;
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * An immutable, thread-safe predictor of a trained {@link svm_model}.
+ * <p>
+ * The model is compiled when its kernel is supported, see {@link CompiledModel#compile},
+ * otherwise a private copy of it is predicted by libsvm.
+ * Either way the predictor does not change when the original model does,
+ * and any number of threads may share it without locks.
+ */
+public final class Predictor {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final PredictionMetrics.Timer PREDICT_TIMER = PredictionMetrics.timer("predictor.predict");
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * The compiled model, null if the kernel is not supported.
+     */
+    private final CompiledModel compiled;
+
+    /**
+     * A private copy of the model, null if compiled.
+     */
+    private final svm_model model;
+
+    /**
+     * Feature row of the calling thread.
+     */
+    private final ThreadLocal<double[]> rows;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * @param model a trained model
+     */
+    public Predictor(svm_model model) {
+        CompiledModel compiled;
+        try {
+            compiled = CompiledModel.compile(model);
+        } catch (IllegalArgumentException e) {
+            compiled = null;
+        }
+        this.compiled = compiled;
+        this.model = compiled == null ? copy(model) : null;
+        int featureNum = compiled == null ? CompiledModel.maxIndex(model) : compiled.getFeatureNum();
+        this.rows = ThreadLocal.withInitial(() -> new double[featureNum]);
+    }
+
+    /**
+     * @param compiled a compiled model
+     */
+    public Predictor(CompiledModel compiled) {
+        this.compiled = compiled;
+        this.model = null;
+        this.rows = ThreadLocal.withInitial(() -> new double[compiled.getFeatureNum()]);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    private static svm_model copy(svm_model model) {
+        svm_model copy = new svm_model();
+        copy.param = (svm_parameter) model.param.clone();
+        copy.nr_class = model.nr_class;
+        copy.l = model.l;
+        copy.SV = new svm_node[model.l][];
+        for (int i = 0; i < model.l; i++) {
+            copy.SV[i] = new svm_node[model.SV[i].length];
+            for (int j = 0; j < model.SV[i].length; j++) {
+                copy.SV[i][j] = new svm_node();
+                copy.SV[i][j].index = model.SV[i][j].index;
+                copy.SV[i][j].value = model.SV[i][j].value;
+            }
+        }
+        copy.sv_coef = new double[model.sv_coef.length][];
+        for (int i = 0; i < model.sv_coef.length; i++) {
+            copy.sv_coef[i] = model.sv_coef[i].clone();
+        }
+        copy.rho = model.rho.clone();
+        copy.probA = model.probA == null ? null : model.probA.clone();
+        copy.probB = model.probB == null ? null : model.probB.clone();
+        copy.sv_indices = model.sv_indices == null ? null : model.sv_indices.clone();
+        copy.label = model.label == null ? null : model.label.clone();
+        copy.nSV = model.nSV == null ? null : model.nSV.clone();
+        return copy;
+    }
+
+    /**
+     * Predict a sample.
+     *
+     * @param sample sample to be predicted, scaled as the training set
+     * @return the predict label of the sample
+     */
+    public double predict(Sample sample) {
+        if (!PredictionMetrics.isEnabled()) {
+            return label(sample);
+        }
+        long start = System.nanoTime();
+        double label = label(sample);
+        PREDICT_TIMER.record(System.nanoTime() - start, kernelsPerRow());
+        return label;
+    }
+
+    private double label(Sample sample) {
+        if (this.compiled == null) {
+            return svm.svm_predict(this.model, sample.getFeatureArray());
+        }
+        double[] row = this.rows.get();
+        double tailNorm = CompiledModel.toRow(sample, row);
+        return this.compiled.predict(row, tailNorm);
+    }
+
+    /**
+     * Predict a dense feature row.
+     *
+     * @param row the dense feature row, scaled as the training set
+     * @return the predict label of the row
+     */
+    public double predict(double[] row) {
+        if (!PredictionMetrics.isEnabled()) {
+            return label(row);
+        }
+        long start = System.nanoTime();
+        double label = label(row);
+        PREDICT_TIMER.record(System.nanoTime() - start, kernelsPerRow());
+        return label;
+    }
+
+    private double label(double[] row) {
+        if (this.compiled == null) {
+            return svm.svm_predict(this.model, nodes(row));
+        }
+        return this.compiled.predict(row);
+    }
+
+    /**
+     * The decision values of a sample, one per class pair.
+     *
+     * @param sample sample to be predicted, scaled as the training set
+     * @return the decision values
+     */
+    public double[] decisionValues(Sample sample) {
+        boolean timed = PredictionMetrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0L;
+        int nrClass = this.compiled == null ? this.model.nr_class : this.compiled.getNrClass();
+        double[] decValues = new double[nrClass * (nrClass - 1) / 2];
+        if (this.compiled == null) {
+            svm.svm_predict_values(this.model, sample.getFeatureArray(), decValues);
+        } else {
+            double[] row = this.rows.get();
+            double tailNorm = CompiledModel.toRow(sample, row);
+            this.compiled.decisionValues(row, tailNorm, decValues);
+        }
+        if (timed) {
+            PREDICT_TIMER.record(System.nanoTime() - start, kernelsPerRow());
+        }
+        return decValues;
+    }
+
+    /**
+     * Predict all samples on the common pool, see {@link BatchPredictor}.
+     *
+     * @param data samples to be predicted, scaled as the training set
+     * @return the predict labels
+     */
+    public double[] predictBatch(Dataset data) {
+        if (this.compiled != null) {
+            return new BatchPredictor().predictBatch(this.compiled, data);
+        }
+        return data.parallelStream().mapToDouble(this::predict).toArray();
+    }
+
+    /**
+     * The decision values of all samples on the common pool, see {@link BatchPredictor}.
+     *
+     * @param data samples to be predicted, scaled as the training set
+     * @return the decision values of every sample, one per class pair
+     */
+    public double[][] decisionValuesBatch(Dataset data) {
+        if (this.compiled != null) {
+            return new BatchPredictor().decisionValuesBatch(this.compiled, data);
+        }
+        return data.parallelStream().map(this::decisionValues).toArray(double[][]::new);
+    }
+
+    /**
+     * @return the compiled model, or null if the kernel is not supported
+     */
+    public CompiledModel getCompiledModel() {
+        return this.compiled;
+    }
+
+    /**
+     * The kernel values a prediction computes.
+     */
+    private int kernelsPerRow() {
+        return this.compiled == null ? this.model.l : this.compiled.kernelsPerRow();
+    }
+
+    private static svm_node[] nodes(double[] row) {
+        svm_node[] x = new svm_node[row.length];
+        for (int i = 0; i < row.length; i++) {
+            x[i] = new svm_node();
+            x[i].index = i + 1;
+            x[i].value = row[i];
+        }
+        return x;
+    }
+}
+
+// End Predictor.java
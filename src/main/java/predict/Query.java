@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+/**
+ * A dense feature row as a {@link SupportVectors} takes it, written once per row by {@link SupportVectors#query}
+ * so that the dot products with every support vector need no conversion.
+ * Only the parts of the storage it was made by are allocated.
+ */
+final class Query {
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * The features, cut or padded with 0 to the dimension; null if not used.
+     */
+    final double[] values;
+
+    /**
+     * The features rounded to {@code float}; null if not used.
+     */
+    final float[] floats;
+
+    /**
+     * The features in fixed point, of {@link #scale} per unit; null if not used.
+     */
+    final int[] ints;
+
+    /**
+     * The value of a unit of {@link #ints}.
+     */
+    double scale;
+
+    /**
+     * A term added to every dot product.
+     */
+    double constant;
+
+    //~ Constructors -----------------------------------------------------------
+
+    Query(double[] values, float[] floats, int[] ints) {
+        this.values = values;
+        this.floats = floats;
+        this.ints = ints;
+    }
+}
+
+// End Query.java
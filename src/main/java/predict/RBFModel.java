@@ -0,0 +1,521 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.LinearScaleParam;
+import libsvm.svm_model;
+import libsvm.svm_node;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * A compiled RBF model.
+ * <p>
+ * The support vectors are flattened into one row-major array with their squared norms cached,
+ * so that {@code |x - sv|^2 = |x|^2 + |sv|^2 - 2 * x . sv} takes one dot product over contiguous memory.
+ */
+public final class RBFModel extends CompiledModel {
+    //~ Static fields/initializers ---------------------------------------------
+
+    /**
+     * Bytes of the support vectors a block of rows goes through at a time, about the size of L2 cache.
+     */
+    private static final int SV_BLOCK_BYTES = 128 * 1024;
+
+    private static final PredictionMetrics.Timer EARLY_TIMER = PredictionMetrics.timer("rbf.predictEarly");
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final double gamma;
+
+    /**
+     * Number of support vectors.
+     */
+    private final int l;
+
+    /**
+     * Support vectors, {@link #featureNum} values each.
+     */
+    private final SupportVectors sv;
+
+    /**
+     * Squared norm of every support vector.
+     */
+    private final double[] svNorms;
+
+    /**
+     * Coefficients of the support vectors in the decision functions,
+     * row-major as {@code svm_model.sv_coef}, {@link #l} values per row.
+     */
+    private final double[] coef;
+
+    /**
+     * Index of the first support vector of every class.
+     */
+    private final int[] start;
+
+    /**
+     * Number of support vectors of every class.
+     */
+    private final int[] nSV;
+
+    /**
+     * Class of every support vector.
+     */
+    private final int[] svClass;
+
+    /**
+     * Kernel values of the calling thread.
+     */
+    private final ThreadLocal<double[]> kernelValues;
+
+    /**
+     * Row of the calling thread as the support vectors take it, see {@link SupportVectors#query}.
+     */
+    private final ThreadLocal<Query> queries;
+
+    /**
+     * Support vectors by descending |coefficient|, for {@link #predictEarly}. Null if the model has no sign to decide.
+     */
+    private final int[] order;
+
+    /**
+     * The sum of the positive coefficients of {@code order[k..]}, the most the rest of the terms can add.
+     */
+    private final double[] positiveTail;
+
+    /**
+     * The sum of the |negative| coefficients of {@code order[k..]}, the most the rest of the terms can take away.
+     */
+    private final double[] negativeTail;
+
+    private final LongAdder kernelEvaluations = new LongAdder();
+
+    private final LongAdder skippedKernels = new LongAdder();
+
+    //~ Constructors -----------------------------------------------------------
+
+    RBFModel(svm_model model, int featureNum) {
+        this(model.param.svm_type, model.nr_class, model.label, model.rho, model.param.gamma,
+                model.nSV == null ? new int[model.nr_class] : model.nSV,
+                coef(model), norms(model), vectors(model, featureNum));
+    }
+
+    /**
+     * @param svmType svm type of the model
+     * @param nrClass number of classes
+     * @param label   label of each class, null for one class and regression models
+     * @param rho     constants in decision functions
+     * @param gamma   gamma of the kernel
+     * @param nSV     number of support vectors of every class
+     * @param coef    coefficients of the support vectors, row-major as {@code svm_model.sv_coef}
+     * @param svNorms squared norm of every support vector
+     * @param sv      the support vectors
+     */
+    RBFModel(int svmType, int nrClass, int[] label, double[] rho, double gamma,
+             int[] nSV, double[] coef, double[] svNorms, SupportVectors sv) {
+        super(svmType, nrClass, label, rho, sv.dimension());
+        this.gamma = gamma;
+        this.l = sv.size();
+        this.sv = sv;
+        this.svNorms = svNorms;
+        this.coef = coef;
+
+        this.nSV = Arrays.copyOf(nSV, nrClass);
+        this.start = new int[nrClass];
+        for (int i = 1; i < nrClass; i++) {
+            this.start[i] = this.start[i - 1] + this.nSV[i - 1];
+        }
+        this.svClass = new int[this.l];
+        for (int c = 0; c < nrClass; c++) {
+            for (int k = 0; k < this.nSV[c]; k++) {
+                this.svClass[this.start[c] + k] = c;
+            }
+        }
+        this.kernelValues = ThreadLocal.withInitial(() -> new double[this.l]);
+        this.queries = ThreadLocal.withInitial(sv::newQuery);
+
+        if (rho.length == 1 && !isRegression()) {
+            this.order = IntStream.range(0, this.l).boxed()
+                    .sorted(Comparator.comparingDouble((Integer i) -> -Math.abs(coef[i])))
+                    .mapToInt(Integer::intValue).toArray();
+            this.positiveTail = new double[this.l + 1];
+            this.negativeTail = new double[this.l + 1];
+            for (int k = this.l - 1; k >= 0; k--) {
+                double c = coef[this.order[k]];
+                this.positiveTail[k] = this.positiveTail[k + 1] + Math.max(0.0d, c);
+                this.negativeTail[k] = this.negativeTail[k + 1] + Math.max(0.0d, -c);
+            }
+        } else {
+            this.order = null;
+            this.positiveTail = null;
+            this.negativeTail = null;
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    private static double[] coef(svm_model model) {
+        double[] coef = new double[(model.nr_class - 1) * model.l];
+        for (int k = 0; k < model.nr_class - 1; k++) {
+            System.arraycopy(model.sv_coef[k], 0, coef, k * model.l, model.l);
+        }
+        return coef;
+    }
+
+    private static double[] norms(svm_model model) {
+        double[] norms = new double[model.l];
+        for (int i = 0; i < model.l; i++) {
+            for (svm_node node : model.SV[i]) {
+                norms[i] += node.value * node.value;
+            }
+        }
+        return norms;
+    }
+
+    private static SupportVectors vectors(svm_model model, int featureNum) {
+        double[] values = new double[model.l * featureNum];
+        for (int i = 0; i < model.l; i++) {
+            for (svm_node node : model.SV[i]) {
+                if (node.index >= 1 && node.index <= featureNum) {
+                    values[i * featureNum + node.index - 1] = node.value;
+                }
+            }
+        }
+        return new DoubleVectors(values, model.l, featureNum);
+    }
+
+    static double squaredNorm(double[] x) {
+        double norm = 0.0d;
+        for (double value : x) {
+            norm += value * value;
+        }
+        return norm;
+    }
+
+    /**
+     * @return the row as the support vectors take it, in the buffer of the calling thread
+     */
+    private Query query(double[] x) {
+        Query query = this.queries.get();
+        this.sv.query(x, query);
+        return query;
+    }
+
+    /**
+     * The kernel value of a support vector.
+     *
+     * @param dot   dot product of the row and the support vector
+     * @param xNorm squared norm of the row
+     * @param i     index of the support vector
+     * @return exp(-gamma * |x - sv|^2)
+     */
+    private double kernel(double dot, double xNorm, int i) {
+        // rounding may leave a tiny negative distance of identical vectors
+        double distance = Math.max(0.0d, xNorm + this.svNorms[i] - 2 * dot);
+        return Math.exp(-this.gamma * distance);
+    }
+
+    @Override
+    public double decisionValue(double[] x) {
+        return decisionValue(x, squaredNorm(x));
+    }
+
+    /**
+     * @param xNorm squared norm of the row
+     */
+    private double decisionValue(double[] x, double xNorm) {
+        double[] dots = this.kernelValues.get();
+        this.sv.dots(query(x), 0, this.l, dots);
+        double sum = 0.0d;
+        for (int i = 0; i < this.l; i++) {
+            sum += this.coef[i] * kernel(dots[i], xNorm, i);
+        }
+        return sum - this.rho[0];
+    }
+
+    @Override
+    public void decisionValues(double[] x, double[] decValues) {
+        decisionValues(x, 0.0d, decValues);
+    }
+
+    /**
+     * The dropped features only add to the distances.
+     */
+    @Override
+    public void decisionValues(double[] x, double tailNorm, double[] decValues) {
+        double xNorm = squaredNorm(x) + tailNorm;
+        if (this.nrClass == 2) {
+            decValues[0] = decisionValue(x, xNorm);
+            return;
+        }
+        double[] kvalue = this.kernelValues.get();
+        this.sv.dots(query(x), 0, this.l, kvalue);
+        for (int i = 0; i < this.l; i++) {
+            kvalue[i] = kernel(kvalue[i], xNorm, i);
+        }
+
+        // the same pairing as svm.svm_predict_values
+        int p = 0;
+        for (int i = 0; i < this.nrClass; i++) {
+            for (int j = i + 1; j < this.nrClass; j++) {
+                double sum = 0;
+                int si = this.start[i];
+                int sj = this.start[j];
+                int coef1 = (j - 1) * this.l;
+                int coef2 = i * this.l;
+                for (int k = 0; k < this.nSV[i]; k++) {
+                    sum += this.coef[coef1 + si + k] * kvalue[si + k];
+                }
+                for (int k = 0; k < this.nSV[j]; k++) {
+                    sum += this.coef[coef2 + sj + k] * kvalue[sj + k];
+                }
+                decValues[p] = sum - this.rho[p];
+                p++;
+            }
+        }
+    }
+
+    /**
+     * Predict a row, stopping once the sign of the decision value is settled.
+     * <p>
+     * The support vectors are taken by descending |coefficient|. Every kernel value is in (0, 1],
+     * so the terms left can add at most their positive coefficients and take away at most their negative ones;
+     * once neither can change the sign of the sum the rest are skipped.
+     * The label is the same as {@link #predict}'s but for decision values within rounding of 0.
+     * Multi class and regression models have no single sign to settle, they are predicted in full.
+     *
+     * @param x the dense feature row
+     * @return the predicted label
+     */
+    public double predictEarly(double[] x) {
+        boolean timed = PredictionMetrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0L;
+        double label;
+        int k = 0;
+        if (this.order == null) {
+            label = predict(x);
+            k = this.l;
+        } else {
+            double xNorm = squaredNorm(x);
+            Query query = query(x);
+            double sum = -this.rho[0];
+            // the tails are 0 at k == l, so the loop always ends there
+            while (sum - this.negativeTail[k] <= 0 && sum + this.positiveTail[k] > 0) {
+                int i = this.order[k++];
+                sum += this.coef[i] * kernel(this.sv.dot(query, i), xNorm, i);
+            }
+            label = decide(sum);
+        }
+        this.kernelEvaluations.add(k);
+        this.skippedKernels.add(this.l - k);
+        if (timed) {
+            EARLY_TIMER.record(System.nanoTime() - start, k);
+        }
+        return label;
+    }
+
+    /**
+     * @return the number of kernel values computed by {@link #predictEarly}
+     */
+    public long getKernelEvaluations() {
+        return this.kernelEvaluations.sum();
+    }
+
+    /**
+     * @return the number of kernel values {@link #predictEarly} did not need
+     */
+    public long getSkippedKernels() {
+        return this.skippedKernels.sum();
+    }
+
+    /**
+     * Goes through the support vectors block by block, every block for all the rows.
+     * The sums of every class pair are taken in the same order as a single row.
+     */
+    @Override
+    public void decisionValues(double[][] rows, int count, double[][] decValues) {
+        decisionValues(rows, count, new double[count], decValues);
+    }
+
+    @Override
+    public void decisionValues(double[][] rows, int count, double[] tailNorms, double[][] decValues) {
+        double[] xNorms = new double[count];
+        for (int r = 0; r < count; r++) {
+            xNorms[r] = squaredNorm(rows[r]) + tailNorms[r];
+        }
+        decisionValuesOfNorms(rows, count, xNorms, decValues);
+    }
+
+    /**
+     * @param xNorms squared norm of every row, e.g. shared by several models
+     */
+    void decisionValuesOfNorms(double[][] rows, int count, double[] xNorms, double[][] decValues) {
+        Query[] queries = new Query[count];
+        for (int r = 0; r < count; r++) {
+            Arrays.fill(decValues[r], 0, this.rho.length, 0.0d);
+            queries[r] = this.sv.newQuery();
+            this.sv.query(rows[r], queries[r]);
+        }
+        double[] dots = this.kernelValues.get();
+        int svBlock = Math.max(1, SV_BLOCK_BYTES / 8 / Math.max(1, this.featureNum));
+        for (int from = 0; from < this.l; from += svBlock) {
+            int to = Math.min(this.l, from + svBlock);
+            for (int r = 0; r < count; r++) {
+                double[] dec = decValues[r];
+                this.sv.dots(queries[r], from, to, dots);
+                if (this.rho.length == 1) {
+                    double sum = dec[0];
+                    for (int k = from; k < to; k++) {
+                        sum += this.coef[k] * kernel(dots[k], xNorms[r], k);
+                    }
+                    dec[0] = sum;
+                } else {
+                    for (int k = from; k < to; k++) {
+                        accumulate(dec, k, kernel(dots[k], xNorms[r], k));
+                    }
+                }
+            }
+        }
+        for (int r = 0; r < count; r++) {
+            for (int p = 0; p < this.rho.length; p++) {
+                decValues[r][p] -= this.rho[p];
+            }
+        }
+    }
+
+    /**
+     * Add the term of a support vector to every class pair of its class.
+     */
+    private void accumulate(double[] dec, int k, double kvalue) {
+        int c = this.svClass[k];
+        for (int o = 0; o < this.nrClass; o++) {
+            if (o < c) {
+                // pair (o, c), the coefficient of class c against o
+                dec[pairIndex(o, c)] += this.coef[o * this.l + k] * kvalue;
+            } else if (o > c) {
+                // pair (c, o)
+                dec[pairIndex(c, o)] += this.coef[(o - 1) * this.l + k] * kvalue;
+            }
+        }
+    }
+
+    /**
+     * Index of class pair (i, j), i &lt; j, in the order of libsvm.
+     */
+    private int pairIndex(int i, int j) {
+        return i * (2 * this.nrClass - i - 1) / 2 + j - i - 1;
+    }
+
+    /**
+     * This model with the support vectors rounded to {@code float}.
+     *
+     * @return a model of half the support vector bytes
+     */
+    public RBFModel toFloat() {
+        return with(new FloatVectors(this.sv));
+    }
+
+    /**
+     * This model with the support vectors quantised to a byte per feature,
+     * over the range the training set was scaled to.
+     *
+     * @param param the result returned by {@code linearScale} on the training data
+     * @return a model of an eighth of the support vector bytes
+     */
+    public RBFModel toBytes(LinearScaleParam param) {
+        double[] min = new double[this.featureNum];
+        double[] max = new double[this.featureNum];
+        Arrays.fill(min, param.getLowerBound());
+        Arrays.fill(max, param.getUpperBound());
+        return with(new ByteVectors(this.sv, min, max));
+    }
+
+    /**
+     * This model with the support vectors quantised to a byte per feature,
+     * over the range of every feature among the support vectors, for training sets not linearly scaled.
+     *
+     * @return a model of an eighth of the support vector bytes
+     */
+    public RBFModel toBytes() {
+        double[] min = new double[this.featureNum];
+        double[] max = new double[this.featureNum];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < this.l; i++) {
+            for (int j = 0; j < this.featureNum; j++) {
+                min[j] = Math.min(min[j], this.sv.get(i, j));
+                max[j] = Math.max(max[j], this.sv.get(i, j));
+            }
+        }
+        return with(new ByteVectors(this.sv, min, max));
+    }
+
+    /**
+     * This model with other support vectors, the norms are taken of the new ones.
+     */
+    private RBFModel with(SupportVectors vectors) {
+        double[] norms = new double[this.l];
+        for (int i = 0; i < this.l; i++) {
+            for (int j = 0; j < this.featureNum; j++) {
+                double value = vectors.get(i, j);
+                norms[i] += value * value;
+            }
+        }
+        return new RBFModel(this.svmType, this.nrClass, this.label, this.rho, this.gamma,
+                this.nSV, this.coef, norms, vectors);
+    }
+
+    /**
+     * @return the number of support vectors
+     */
+    public int getSVNum() {
+        return this.l;
+    }
+
+    @Override
+    int kernelsPerRow() {
+        return this.l;
+    }
+
+    @Override
+    public long estimateBytes() {
+        return this.sv.bytes() + 8L * (this.coef.length + this.svNorms.length) + 4L * this.svClass.length;
+    }
+
+    double getGamma() {
+        return this.gamma;
+    }
+
+    int[] getNSV() {
+        return this.nSV;
+    }
+
+    double[] getCoef() {
+        return this.coef;
+    }
+
+    double[] getSVNorms() {
+        return this.svNorms;
+    }
+
+    SupportVectors getSupportVectors() {
+        return this.sv;
+    }
+}
+
+// End RBFModel.java
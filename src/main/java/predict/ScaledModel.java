@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+/**
+ * A compiled model that takes raw rows and scales them as it predicts,
+ * see {@link CompiledModel#scaledBy(data.LinearScaleParam)}.
+ * <p>
+ * Every row is scaled by a multiply-add per feature into a buffer of the calling thread,
+ * the rows given are never changed.
+ */
+public final class ScaledModel extends CompiledModel {
+    //~ Instance fields --------------------------------------------------------
+
+    private final CompiledModel model;
+
+    private final Scaling scaling;
+
+    /**
+     * Scaled row of the calling thread.
+     */
+    private final ThreadLocal<double[]> rows;
+
+    //~ Constructors -----------------------------------------------------------
+
+    ScaledModel(CompiledModel model, Scaling scaling) {
+        super(model.svmType, model.nrClass, model.label, model.rho, model.featureNum);
+        this.model = model;
+        this.scaling = scaling;
+        this.rows = ThreadLocal.withInitial(() -> new double[this.featureNum]);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    private double[] scale(double[] x) {
+        double[] row = this.rows.get();
+        this.scaling.apply(x, row);
+        return row;
+    }
+
+    @Override
+    public double decisionValue(double[] x) {
+        return this.model.decisionValue(scale(x));
+    }
+
+    @Override
+    public void decisionValues(double[] x, double[] decValues) {
+        this.model.decisionValues(scale(x), decValues);
+    }
+
+    @Override
+    public void decisionValues(double[][] rows, int count, double[][] decValues) {
+        double[][] scaled = new double[count][this.featureNum];
+        for (int r = 0; r < count; r++) {
+            this.scaling.apply(rows[r], scaled[r]);
+        }
+        this.model.decisionValues(scaled, count, decValues);
+    }
+
+    /**
+     * The dropped features are taken unscaled, as {@link data.Dataset#linearScaleFrom} leaves them.
+     */
+    @Override
+    public void decisionValues(double[] x, double tailNorm, double[] decValues) {
+        this.model.decisionValues(scale(x), tailNorm + tailNorm(x, this.featureNum), decValues);
+    }
+
+    @Override
+    public void decisionValues(double[][] rows, int count, double[] tailNorms, double[][] decValues) {
+        double[][] scaled = new double[count][this.featureNum];
+        double[] scaledTailNorms = new double[count];
+        for (int r = 0; r < count; r++) {
+            this.scaling.apply(rows[r], scaled[r]);
+            scaledTailNorms[r] = tailNorms[r] + tailNorm(rows[r], this.featureNum);
+        }
+        this.model.decisionValues(scaled, count, scaledTailNorms, decValues);
+    }
+
+    @Override
+    public long estimateBytes() {
+        return this.model.estimateBytes() + 16L * this.featureNum;
+    }
+
+    /**
+     * @return the model of scaled rows
+     */
+    public CompiledModel getModel() {
+        return this.model;
+    }
+
+    @Override
+    int kernelsPerRow() {
+        return this.model.kernelsPerRow();
+    }
+
+    Scaling getScaling() {
+        return this.scaling;
+    }
+}
+
+// End ScaledModel.java
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.LinearScaleParam;
+import data.SoftScaleParam;
+
+import java.util.Arrays;
+
+/**
+ * A scale parameter as a multiply-add per feature, {@code scaled = raw * multiplier + offset}.
+ */
+final class Scaling {
+    //~ Instance fields --------------------------------------------------------
+
+    final double[] multiplier;
+
+    final double[] offset;
+
+    //~ Constructors -----------------------------------------------------------
+
+    Scaling(double[] multiplier, double[] offset) {
+        this.multiplier = multiplier;
+        this.offset = offset;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * @param featureNum the number of features to scale, features beyond the parameter are kept as they are
+     */
+    static Scaling of(LinearScaleParam param, int featureNum) {
+        Scaling scaling = identity(featureNum);
+        for (int i = 0; i < Math.min(featureNum, param.getFeatureNum()); i++) {
+            // (x - min) * span / featureSpan + lower
+            scaling.multiplier[i] = param.getBoundarySpan() / param.getFeatureSpan(i);
+            scaling.offset[i] = param.getLowerBound() - param.getFeatureMin(i) * scaling.multiplier[i];
+        }
+        return scaling;
+    }
+
+    /**
+     * @param featureNum the number of features to scale, features beyond the parameter are kept as they are
+     */
+    static Scaling of(SoftScaleParam param, int featureNum) {
+        Scaling scaling = identity(featureNum);
+        for (int i = 0; i < Math.min(featureNum, param.getFeatureNum()); i++) {
+            // (x - mean) / sd / 2
+            scaling.multiplier[i] = 1.0d / (2 * param.getSD(i));
+            scaling.offset[i] = -param.getMean(i) * scaling.multiplier[i];
+        }
+        return scaling;
+    }
+
+    private static Scaling identity(int featureNum) {
+        double[] multiplier = new double[featureNum];
+        Arrays.fill(multiplier, 1.0d);
+        return new Scaling(multiplier, new double[featureNum]);
+    }
+
+    int size() {
+        return this.multiplier.length;
+    }
+
+    /**
+     * Scale a raw row into a row of {@link #size()} features, features beyond the raw row are taken as raw 0.
+     */
+    void apply(double[] raw, double[] scaled) {
+        int d = Math.min(raw.length, scaled.length);
+        for (int j = 0; j < d; j++) {
+            scaled[j] = raw[j] * this.multiplier[j] + this.offset[j];
+        }
+        System.arraycopy(this.offset, d, scaled, d, scaled.length - d);
+    }
+}
+
+// End Scaling.java
@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import data.LinearScaleParam;
+import data.SVMFileReader;
+import data.SoftScaleParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scores a data file into a result file without reading it as a whole.
+ * <p>
+ * The input is read in chunks of lines, each chunk is parsed and predicted on a {@link ForkJoinPool}
+ * while the next ones are read, and the results are written in the order of the input.
+ * At most {@link #queuedChunks} chunks are in memory at a time, however long the input is.
+ * Raw lines are scaled within the prediction, see {@link CompiledModel#scaledBy(LinearScaleParam)}.
+ * <p>
+ * Every line of the result is the predicted label followed by the decision values,
+ * see {@link CompiledModel#decisionValues(double[], double[])}. Blank input lines are skipped.
+ */
+public final class ScorePipeline {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScorePipeline.class);
+
+    //~ Instance fields --------------------------------------------------------
+
+    /**
+     * The number of lines of a chunk.
+     */
+    public int chunkSize = 4096;
+
+    /**
+     * The number of chunks read but not yet written.
+     */
+    public int queuedChunks;
+
+    private final CompiledModel model;
+
+    private final ForkJoinPool pool;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Score on the common pool.
+     *
+     * @param model the model
+     */
+    public ScorePipeline(CompiledModel model) {
+        this(model, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param model the model
+     * @param pool  the pool to parse, scale and predict on
+     */
+    public ScorePipeline(CompiledModel model, ForkJoinPool pool) {
+        this.model = model;
+        this.pool = pool;
+        this.queuedChunks = 2 * pool.getParallelism();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Score a data file that is scaled already.
+     *
+     * @param input  the data file, of the format read by {@link SVMFileReader}
+     * @param output the result file
+     * @return the number of lines scored
+     * @throws IOException if failed to read or write
+     */
+    public long score(String input, String output) throws IOException {
+        return run(input, output, this.model);
+    }
+
+    /**
+     * Score a raw data file, scaling every line with the parameter of the training set.
+     *
+     * @param input  the data file, of the format read by {@link SVMFileReader}
+     * @param output the result file
+     * @param param  the result returned by {@code linearScale} on training data
+     * @return the number of lines scored
+     * @throws IOException if failed to read or write
+     */
+    public long score(String input, String output, LinearScaleParam param) throws IOException {
+        return run(input, output, this.model.scaledBy(param));
+    }
+
+    /**
+     * Score a raw data file, scaling every line with the parameter of the training set.
+     *
+     * @param input  the data file, of the format read by {@link SVMFileReader}
+     * @param output the result file
+     * @param param  the result returned by {@code softScale} on training data
+     * @return the number of lines scored
+     * @throws IOException if failed to read or write
+     */
+    public long score(String input, String output, SoftScaleParam param) throws IOException {
+        return run(input, output, this.model.scaledBy(param));
+    }
+
+    private long run(String input, String output, CompiledModel model) throws IOException {
+        long count = 0;
+        Deque<CompletableFuture<String>> pending = new ArrayDeque<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(input));
+             BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
+            String[] lines = new String[this.chunkSize];
+            int size = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                lines[size++] = line;
+                if (size == lines.length) {
+                    submit(pending, lines, size, model, writer);
+                    count += size;
+                    lines = new String[this.chunkSize];
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                submit(pending, lines, size, model, writer);
+                count += size;
+            }
+            while (!pending.isEmpty()) {
+                writer.write(join(pending.poll()));
+            }
+        } finally {
+            pending.forEach(future -> future.cancel(false));
+        }
+        LOGGER.info("scored {} lines of {} into {}", count, input, output);
+        return count;
+    }
+
+    /**
+     * Queue a chunk, writing the oldest ones first while the queue is full.
+     */
+    private void submit(Deque<CompletableFuture<String>> pending, String[] lines, int size,
+                        CompiledModel model, BufferedWriter writer) throws IOException {
+        while (pending.size() >= Math.max(1, this.queuedChunks)) {
+            writer.write(join(pending.poll()));
+        }
+        pending.add(CompletableFuture.supplyAsync(() -> scoreChunk(lines, size, model), this.pool));
+    }
+
+    private static String join(CompletableFuture<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("scoring interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Parse and predict a chunk block by block, see {@link BatchPredictor}.
+     * The rows are scaled by the model, see {@link CompiledModel#scaledBy(LinearScaleParam)}.
+     */
+    private static String scoreChunk(String[] lines, int size, CompiledModel model) {
+        SVMFileReader reader = SVMFileReader.getInstance();
+        int blockSize = BatchPredictor.BLOCK_SIZE;
+        double[][] block = new double[blockSize][model.getFeatureNum()];
+        double[][] decValues = new double[blockSize][model.getDecisionValueNum()];
+        StringBuilder result = new StringBuilder(size * 16 * (1 + model.getDecisionValueNum()));
+        for (int start = 0; start < size; start += blockSize) {
+            int count = Math.min(blockSize, size - start);
+            for (int r = 0; r < count; r++) {
+                reader.parse(lines[start + r], block[r]);
+            }
+            model.decisionValues(block, count, decValues);
+            for (int r = 0; r < count; r++) {
+                result.append(model.decide(decValues[r]));
+                for (double decValue : decValues[r]) {
+                    result.append(' ').append(decValue);
+                }
+                result.append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Score a data file from the command line.
+     * The scale parameter, if given, is a serialized {@link LinearScaleParam} or {@link SoftScaleParam}.
+     *
+     * @param args model file, data file, result file and optionally scale parameter file
+     */
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("usage: predict.ScorePipeline <model> <input> <output> [scale param]");
+            return;
+        }
+        ScorePipeline pipeline = new ScorePipeline(ModelFile.load(args[0]));
+        if (args.length == 3) {
+            pipeline.score(args[1], args[2]);
+            return;
+        }
+        Object param;
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(args[3]))) {
+            param = in.readObject();
+        }
+        if (param instanceof LinearScaleParam) {
+            pipeline.score(args[1], args[2], (LinearScaleParam) param);
+        } else if (param instanceof SoftScaleParam) {
+            pipeline.score(args[1], args[2], (SoftScaleParam) param);
+        } else {
+            throw new IllegalArgumentException("not a scale parameter: " + args[3]);
+        }
+    }
+}
+
+// End ScorePipeline.java
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package predict;
+
+import java.util.Arrays;
+
+/**
+ * Storage of the support vectors of a compiled model, dense and row-major.
+ */
+interface SupportVectors {
+
+    /**
+     * @return the number of support vectors
+     */
+    int size();
+
+    /**
+     * @return the number of features of every support vector
+     */
+    int dimension();
+
+    /**
+     * Feature {@code j} of support vector {@code i}.
+     */
+    double get(int i, int j);
+
+    /**
+     * @return a query of this storage, to be reused row after row by one thread
+     */
+    default Query newQuery() {
+        return new Query(new double[dimension()], null, null);
+    }
+
+    /**
+     * Write a dense feature row as {@link #dot} and {@link #dots} take it, once per row.
+     * By default the features themselves, cut or padded with 0 to the dimension.
+     *
+     * @param x     the dense feature row
+     * @param query a query made by {@link #newQuery()}
+     */
+    default void query(double[] x, Query query) {
+        int d = Math.min(dimension(), x.length);
+        System.arraycopy(x, 0, query.values, 0, d);
+        Arrays.fill(query.values, d, dimension(), 0.0d);
+    }
+
+    /**
+     * Dot product of a row and support vector {@code i}.
+     *
+     * @param query the row as written by {@link #query}
+     */
+    double dot(Query query, int i);
+
+    /**
+     * Dot products of a row and support vectors {@code [from, to)}, into the same positions of dots.
+     *
+     * @param query the row as written by {@link #query}
+     */
+    void dots(Query query, int from, int to, double[] dots);
+
+    /**
+     * @return the bytes taken by the support vectors
+     */
+    long bytes();
+}
+
+// End SupportVectors.java
@@ -49,6 +49,39 @@ public final class EdMath {
         }
         return Math.sqrt(deviation / data.length);
     }
+
+    /**
+     * probability density function of the standard normal distribution
+     * @param x the point
+     * @return density at x
+     */
+    public static double normalPdf(double x) {
+        return Math.exp(-0.5 * x * x) / Math.sqrt(2 * Math.PI);
+    }
+
+    /**
+     * cumulative distribution function of the standard normal distribution
+     * @param x the point
+     * @return probability of a standard normal variable not greater than x
+     */
+    public static double normalCdf(double x) {
+        return 0.5 * erfc(-x / Math.sqrt(2));
+    }
+
+    /**
+     * complementary error function, with fractional error less than 1.2e-7
+     * see Numerical Recipes in C, 2nd edition, section 6.2
+     * @param x the point
+     * @return erfc(x)
+     */
+    public static double erfc(double x) {
+        double z = Math.abs(x);
+        double t = 1.0 / (1.0 + 0.5 * z);
+        double ans = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+                + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+                + t * (-0.82215223 + t * 0.17087277)))))))));
+        return x >= 0.0 ? ans : 2.0 - ans;
+    }
 }
 
 // End EdMath.java
@@ -0,0 +1,743 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import core.SVM;
+import data.Dataset;
+import data.LinearScaleParam;
+import data.SVMFileReader;
+import data.Sample;
+import data.SoftScaleParam;
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+import org.junit.Test;
+import predict.BatchPredictor;
+import predict.CompiledModel;
+import predict.DriftReport;
+import predict.EnsembleScorer;
+import predict.LinearModel;
+import predict.ModelFile;
+import predict.ModelReducer;
+import predict.ModelRegistry;
+import predict.PredictionCache;
+import predict.PredictionMetrics;
+import predict.PredictionServer;
+import predict.Predictor;
+import predict.RBFModel;
+import predict.ScorePipeline;
+
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the compiled models against libsvm.
+ */
+public final class PredictTests {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static Dataset train;
+
+    private static Dataset test;
+
+    private static LinearScaleParam scaleParam;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Every 10th sample of the training set and of the testing set, scaled alike.
+     */
+    private static synchronized void load() {
+        if (train != null) {
+            return;
+        }
+        Dataset trainData = SVMFileReader.getInstance().read("./datasets/train");
+        Dataset testData = SVMFileReader.getInstance().read("./datasets/test");
+        train = new Dataset();
+        train.setFeatureNum(trainData.getFeatureNum());
+        for (int i = 0; i < trainData.size(); i += 10) {
+            train.add(trainData.get(i));
+        }
+        test = new Dataset();
+        test.setFeatureNum(testData.getFeatureNum());
+        for (int i = 0; i < testData.size(); i += 10) {
+            test.add(testData.get(i));
+        }
+        scaleParam = train.linearScale();
+        test.linearScaleFrom(scaleParam);
+    }
+
+    private static svm_model trainModel(Dataset data, int kernelType) {
+        svm_problem problem = new svm_problem();
+        problem.l = data.size();
+        problem.x = new svm_node[problem.l][];
+        problem.y = new double[problem.l];
+        for (int i = 0; i < problem.l; i++) {
+            problem.x[i] = data.get(i).getFeatureArray();
+            problem.y[i] = data.get(i).getLabel();
+        }
+        svm_parameter param = new svm_parameter();
+        param.svm_type = svm_parameter.C_SVC;
+        param.kernel_type = kernelType;
+        param.C = 1.0d;
+        param.gamma = 0.5d;
+        param.eps = 0.001d;
+        param.cache_size = 100.0d;
+        svm.svm_set_print_string_function(s -> {
+        });
+        return svm.svm_train(problem, param);
+    }
+
+    /**
+     * The training set with a third class taken out of the first one.
+     */
+    private static Dataset threeClasses() {
+        Dataset data = new Dataset();
+        data.setFeatureNum(train.getFeatureNum());
+        for (int i = 0; i < train.size(); i++) {
+            Sample sample = train.get(i).clone();
+            if (sample.getLabel() > 0 && i % 3 == 0) {
+                sample.setLabel(2.0d);
+            }
+            data.add(sample);
+        }
+        return data;
+    }
+
+    private static void assertSame(svm_model model, CompiledModel compiled) {
+        int nrPairs = model.nr_class * (model.nr_class - 1) / 2;
+        double[] expected = new double[nrPairs];
+        double[] actual = new double[nrPairs];
+        double[] row = new double[compiled.getFeatureNum()];
+        for (Sample sample : test) {
+            svm_node[] x = sample.getFeatureArray();
+            CompiledModel.toRow(sample, row);
+            assertEquals(svm.svm_predict_values(model, x, expected), compiled.predict(row), 0.0d);
+            compiled.decisionValues(row, actual);
+            for (int k = 0; k < nrPairs; k++) {
+                assertEquals(expected[k], actual[k], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void rbfTest() {
+        load();
+        svm_model model = trainModel(train, svm_parameter.RBF);
+        assertSame(model, CompiledModel.compile(model));
+
+        svm_model multiClass = trainModel(threeClasses(), svm_parameter.RBF);
+        assertSame(multiClass, CompiledModel.compile(multiClass));
+    }
+
+    @Test
+    public void batchTest() {
+        load();
+        Dataset many = new Dataset();
+        many.setFeatureNum(test.getFeatureNum());
+        for (int i = 0; i < 10; i++) {
+            many.addAll(test);
+        }
+        BatchPredictor predictor = new BatchPredictor(new ForkJoinPool(4));
+
+        for (svm_model model : new svm_model[]{trainModel(train, svm_parameter.RBF),
+                trainModel(threeClasses(), svm_parameter.RBF)}) {
+            CompiledModel compiled = CompiledModel.compile(model);
+            double[] labels = predictor.predictBatch(compiled, many);
+            double[][] decValues = predictor.decisionValuesBatch(compiled, many);
+            double[] expected = new double[compiled.getDecisionValueNum()];
+            for (int i = 0; i < many.size(); i++) {
+                double[] row = CompiledModel.toRow(many.get(i), compiled.getFeatureNum());
+                assertEquals(compiled.predict(row), labels[i], 0.0d);
+                compiled.decisionValues(row, expected);
+                assertArrayEquals(expected, decValues[i], 0.0d);
+            }
+        }
+
+        // kernels not compiled fall back to libsvm
+        svm_model poly = trainModel(train, svm_parameter.POLY);
+        double[] labels = new SVM().predictBatch(poly, test);
+        double[][] decValues = new SVM().decisionValuesBatch(poly, test);
+        double[] expected = new double[1];
+        for (int i = 0; i < test.size(); i++) {
+            assertEquals(svm.svm_predict_values(poly, test.get(i).getFeatureArray(), expected), labels[i], 0.0d);
+            assertArrayEquals(expected, decValues[i], 0.0d);
+        }
+    }
+
+    @Test
+    public void modelFileTest() throws IOException {
+        load();
+        File text = File.createTempFile("model", ".txt");
+        text.deleteOnExit();
+        File binary = File.createTempFile("model", ".bin");
+        binary.deleteOnExit();
+
+        for (svm_model model : new svm_model[]{trainModel(train, svm_parameter.RBF),
+                trainModel(threeClasses(), svm_parameter.RBF), trainModel(train, svm_parameter.LINEAR)}) {
+            svm.svm_save_model(text.getPath(), model);
+            ModelFile.convert(text.getPath(), binary.getPath());
+            assertSame(model, ModelFile.map(binary.getPath()));
+        }
+    }
+
+    @Test
+    public void linearTest() throws IOException {
+        load();
+        File file = File.createTempFile("linear", ".model");
+        file.deleteOnExit();
+
+        svm_model model = trainModel(train, svm_parameter.LINEAR);
+        LinearModel compiled = (LinearModel) CompiledModel.compile(model);
+        assertSame(model, compiled);
+        compiled.save(file.getPath());
+        assertSame(model, LinearModel.load(file.getPath()));
+
+        svm_model multiClass = trainModel(threeClasses(), svm_parameter.LINEAR);
+        compiled = (LinearModel) CompiledModel.compile(multiClass);
+        assertSame(multiClass, compiled);
+        compiled.save(file.getPath());
+        assertSame(multiClass, LinearModel.load(file.getPath()));
+    }
+
+    @Test
+    public void registryTest() throws Exception {
+        load();
+        File first = File.createTempFile("first", ".bin");
+        first.deleteOnExit();
+        File second = File.createTempFile("second", ".model");
+        second.deleteOnExit();
+        svm_model rbf = trainModel(train, svm_parameter.RBF);
+        svm_model linear = trainModel(train, svm_parameter.LINEAR);
+        svm.svm_save_model(second.getPath(), rbf);
+        ModelFile.convert(second.getPath(), first.getPath());
+        svm.svm_save_model(second.getPath(), linear);
+
+        // room for the rbf model only, so the two file models take turns
+        long budget = CompiledModel.compile(rbf).estimateBytes();
+        ModelRegistry registry = new ModelRegistry(budget);
+        registry.register("rbf", 1, first.getPath());
+        registry.register("linear", 1, second.getPath());
+        assertEquals(2, registry.getLoadCount());
+        assertEquals(1, registry.getEvictionCount());
+        assertTrue(registry.getLoadedBytes() <= budget);
+        for (int i = 0; i < 3; i++) {
+            assertSame(rbf, registry.get("rbf"));
+            assertSame(linear, registry.get("linear"));
+        }
+        assertEquals(8, registry.getLoadCount());
+        assertEquals(7, registry.getEvictionCount());
+        assertNull(registry.get("unknown"));
+
+        // a model taken before the swap keeps working
+        CompiledModel old = registry.get("rbf");
+        registry.publish("rbf", 2, CompiledModel.compile(linear));
+        assertEquals(2, registry.getVersion("rbf"));
+        assertSame(linear, registry.get("rbf"));
+        assertSame(rbf, old);
+        assertFalse(registry.remove("rbf", 2));
+        assertTrue(registry.activate("rbf", 1));
+        assertSame(rbf, registry.get("rbf"));
+        assertTrue(registry.remove("rbf", 2));
+        assertFalse(registry.activate("rbf", 2));
+
+        // the active version always has a model, while another thread removes and publishes it again
+        CompiledModel compiled = registry.get("rbf");
+        registry.publish("race", 1, compiled);
+        registry.publish("race", 2, compiled);
+        Thread remover = new Thread(() -> {
+            for (int i = 0; i < 10000; i++) {
+                if (registry.remove("race", 2)) {
+                    registry.publish("race", 2, compiled);
+                }
+            }
+        });
+        remover.start();
+        while (remover.isAlive()) {
+            registry.activate("race", 2);
+            assertNotNull(registry.get("race"));
+            registry.activate("race", 1);
+            assertNotNull(registry.get("race"));
+        }
+        remover.join();
+    }
+
+    @Test
+    public void scorePipelineTest() throws IOException {
+        load();
+        File output = File.createTempFile("scores", ".txt");
+        output.deleteOnExit();
+        CompiledModel compiled = CompiledModel.compile(trainModel(threeClasses(), svm_parameter.RBF));
+        Dataset raw = SVMFileReader.getInstance().read("./datasets/test");
+        raw.linearScaleFrom(scaleParam);
+
+        ScorePipeline pipeline = new ScorePipeline(compiled, new ForkJoinPool(3));
+        pipeline.chunkSize = 100;
+        pipeline.queuedChunks = 3;
+        assertEquals(raw.size(), pipeline.score("./datasets/test", output.getPath(), scaleParam));
+
+        double[] expected = new double[compiled.getDecisionValueNum()];
+        try (BufferedReader reader = new BufferedReader(new FileReader(output))) {
+            for (Sample sample : raw) {
+                double[] row = CompiledModel.toRow(sample, compiled.getFeatureNum());
+                String[] scores = reader.readLine().split(" ");
+                assertEquals(1 + expected.length, scores.length);
+                assertEquals(compiled.predict(row), Double.parseDouble(scores[0]), 0.0d);
+                compiled.decisionValues(row, expected);
+                for (int k = 0; k < expected.length; k++) {
+                    assertEquals(expected[k], Double.parseDouble(scores[k + 1]), 1e-9);
+                }
+            }
+            assertNull(reader.readLine());
+        }
+    }
+
+    @Test
+    public void predictionCacheTest() {
+        load();
+        svm_model rbf = trainModel(train, svm_parameter.RBF);
+        svm_model linear = trainModel(train, svm_parameter.LINEAR);
+        SVM classifier = new SVM();
+        classifier.predictionCacheSize = 2 * test.size();
+        PredictionCache cache = classifier.getPredictionCache();
+
+        for (Sample sample : test) {
+            assertEquals(svm.svm_predict(rbf, sample.getFeatureArray()), classifier.predict(rbf, sample), 0.0d);
+        }
+        long misses = cache.getMissCount();
+        assertEquals(test.size(), cache.getHitCount() + misses);
+        assertEquals(misses, cache.size());
+
+        // the same samples again from many threads, all hits
+        IntStream.range(0, 4 * test.size()).parallel().forEach(i -> {
+            Sample sample = test.get(i % test.size());
+            assertEquals(svm.svm_predict(rbf, sample.getFeatureArray()), classifier.predict(rbf, sample), 0.0d);
+        });
+        assertEquals(misses, cache.getMissCount());
+
+        // another model does not see the predictions of the first one
+        for (Sample sample : test) {
+            assertEquals(svm.svm_predict(linear, sample.getFeatureArray()), classifier.predict(linear, sample), 0.0d);
+        }
+        assertEquals(2 * misses, cache.getMissCount());
+    }
+
+    @Test
+    public void earlyExitTest() {
+        load();
+        RBFModel binary = (RBFModel) CompiledModel.compile(trainModel(train, svm_parameter.RBF));
+        for (Sample sample : test) {
+            double[] row = CompiledModel.toRow(sample, binary.getFeatureNum());
+            assertEquals(binary.predict(row), binary.predictEarly(row), 0.0d);
+        }
+        assertEquals((long) test.size() * binary.getSVNum(),
+                binary.getKernelEvaluations() + binary.getSkippedKernels());
+        assertTrue(binary.getSkippedKernels() > 0);
+
+        // multi class models are predicted in full
+        RBFModel multiClass = (RBFModel) CompiledModel.compile(trainModel(threeClasses(), svm_parameter.RBF));
+        for (Sample sample : test) {
+            double[] row = CompiledModel.toRow(sample, multiClass.getFeatureNum());
+            assertEquals(multiClass.predict(row), multiClass.predictEarly(row), 0.0d);
+        }
+        assertEquals(0, multiClass.getSkippedKernels());
+    }
+
+    @Test
+    public void reducerTest() {
+        load();
+        svm_model model = trainModel(train, svm_parameter.RBF);
+        ModelReducer reducer = new ModelReducer();
+        reducer.tolerance = 0.01d;
+        ModelReducer.Result result = reducer.reduce(model, test);
+        assertTrue(result.getSVNum() <= result.getMergedSVNum());
+        assertTrue(result.getMergedSVNum() <= model.l);
+        // the tolerance holds on the tuning half, the accuracies are of the other half
+        assertTrue(result.getOriginalAccuracy() - result.getAccuracy() <= 0.03d);
+        assertSame(result.getModel(), CompiledModel.compile(result.getModel()));
+
+        // every support vector twice with half the coefficients merges back to the model
+        svm_model doubled = trainModel(train, svm_parameter.RBF);
+        doubled.SV = new svm_node[2 * model.l][];
+        doubled.sv_coef = new double[1][2 * model.l];
+        doubled.sv_indices = null;
+        doubled.nSV = new int[2];
+        int k = 0;
+        for (int c = 0, from = 0; c < 2; from += model.nSV[c], c++) {
+            for (int i = from; i < from + model.nSV[c]; i++) {
+                for (int copy = 0; copy < 2; copy++, k++) {
+                    doubled.SV[k] = model.SV[i];
+                    doubled.sv_coef[0][k] = model.sv_coef[0][i] / 2;
+                }
+            }
+            doubled.nSV[c] = 2 * model.nSV[c];
+        }
+        doubled.l = 2 * model.l;
+        reducer.mergeDistance = 0.0d;
+        reducer.tolerance = -1.0d;
+        result = reducer.reduce(doubled, test);
+        assertEquals(model.l, result.getMergedSVNum());
+        assertEquals(model.l, result.getSVNum());
+        assertEquals(result.getOriginalAccuracy(), result.getAccuracy(), 0.0d);
+    }
+
+    @Test
+    public void quantisedTest() {
+        load();
+        for (Dataset data : new Dataset[]{train, threeClasses()}) {
+            RBFModel full = (RBFModel) CompiledModel.compile(trainModel(data, svm_parameter.RBF));
+
+            RBFModel floats = full.toFloat();
+            DriftReport report = DriftReport.measure(full, floats, test);
+            assertTrue(report.getMaxDrift() < 1e-5);
+            assertTrue(report.getCompression() > 1.5d);
+
+            RBFModel bytes = full.toBytes(scaleParam);
+            report = DriftReport.measure(full, bytes, test);
+            assertTrue(report.getMaxDrift() < 0.1d);
+            assertTrue(report.getAgreement() > 0.95d);
+            assertTrue(report.getCompression() > 2.5d);
+            assertTrue(DriftReport.measure(full, full.toBytes(), test).getAgreement() > 0.95d);
+        }
+    }
+
+    @Test
+    public void scaledModelTest() throws IOException {
+        load();
+        File binary = File.createTempFile("scaled", ".bin");
+        binary.deleteOnExit();
+        Dataset raw = new Dataset();
+        Dataset rawTrain = SVMFileReader.getInstance().read("./datasets/train");
+        for (int i = 0; i < rawTrain.size(); i += 10) {
+            raw.add(rawTrain.get(i));
+        }
+        raw.setFeatureNum(rawTrain.getFeatureNum());
+        Dataset soft = SVMFileReader.getInstance().read("./datasets/train");
+        SoftScaleParam softParam = soft.softScale();
+
+        for (svm_model model : new svm_model[]{trainModel(train, svm_parameter.RBF),
+                trainModel(threeClasses(), svm_parameter.RBF), trainModel(train, svm_parameter.LINEAR)}) {
+            CompiledModel compiled = CompiledModel.compile(model);
+            CompiledModel scaled = compiled.scaledBy(scaleParam);
+            assertScaled(compiled, scaled, train, raw);
+            ModelFile.write(scaled, binary.getPath());
+            assertScaled(compiled, ModelFile.map(binary.getPath()), train, raw);
+        }
+        CompiledModel compiled = CompiledModel.compile(trainModel(soft, svm_parameter.RBF));
+        assertScaled(compiled, compiled.scaledBy(softParam), soft, rawTrain);
+    }
+
+    /**
+     * The model of raw samples predicts as the model of the scaled ones, and leaves the raw rows as they are.
+     */
+    private static void assertScaled(CompiledModel compiled, CompiledModel scaled, Dataset data, Dataset raw) {
+        double[] expected = new double[compiled.getDecisionValueNum()];
+        double[] actual = new double[compiled.getDecisionValueNum()];
+        for (int i = 0; i < data.size(); i++) {
+            double[] row = CompiledModel.toRow(data.get(i), compiled.getFeatureNum());
+            double[] rawRow = CompiledModel.toRow(raw.get(i), compiled.getFeatureNum());
+            double[] copy = rawRow.clone();
+            compiled.decisionValues(row, expected);
+            scaled.decisionValues(rawRow, actual);
+            assertArrayEquals(expected, actual, 1e-9);
+            assertEquals(compiled.predict(row), scaled.predict(rawRow), 0.0d);
+            assertArrayEquals(copy, rawRow, 0.0d);
+        }
+    }
+
+    @Test
+    public void ensembleTest() {
+        load();
+        Dataset rawTest = SVMFileReader.getInstance().read("./datasets/test");
+        Dataset raw = new Dataset();
+        raw.setFeatureNum(rawTest.getFeatureNum());
+        for (int i = 0; i < rawTest.size(); i += 10) {
+            raw.add(rawTest.get(i));
+        }
+        List<CompiledModel> models = new ArrayList<>();
+        models.add(CompiledModel.compile(trainModel(train, svm_parameter.RBF)).scaledBy(scaleParam));
+        models.add(CompiledModel.compile(trainModel(train, svm_parameter.LINEAR)).scaledBy(scaleParam));
+        models.add(CompiledModel.compile(trainModel(threeClasses(), svm_parameter.RBF)).scaledBy(scaleParam));
+        EnsembleScorer scorer = new EnsembleScorer(models, new ForkJoinPool(3));
+        assertEquals(2 + 2 + 4, scorer.getColumnNum());
+
+        double[][] results = scorer.score(raw);
+        for (int i = 0; i < raw.size(); i++) {
+            assertArrayEquals(results[i], scorer.score(raw.get(i)), 0.0d);
+            for (int m = 0; m < models.size(); m++) {
+                CompiledModel model = models.get(m);
+                double[] row = CompiledModel.toRow(raw.get(i), model.getFeatureNum());
+                double[] expected = new double[model.getDecisionValueNum()];
+                model.decisionValues(row, expected);
+                int column = scorer.getColumn(m);
+                assertEquals(model.predict(row), results[i][column], 0.0d);
+                assertArrayEquals(expected, Arrays.copyOfRange(results[i], column + 1,
+                        column + 1 + expected.length), 0.0d);
+            }
+        }
+    }
+
+    @Test
+    public void predictionServerTest() throws Exception {
+        load();
+        CompiledModel rbf = CompiledModel.compile(trainModel(train, svm_parameter.RBF));
+        CompiledModel multiClass = CompiledModel.compile(trainModel(threeClasses(), svm_parameter.RBF));
+        ModelRegistry registry = new ModelRegistry(Long.MAX_VALUE);
+        registry.publish("risk", 1, rbf);
+        registry.publish("kind", 1, multiClass);
+
+        try (PredictionServer server = new PredictionServer(registry)) {
+            server.batchSize = 32;
+            server.maxDelayMicros = 2000;
+            int port = server.start(0);
+
+            // a client per sample, a few at a time
+            ForkJoinPool clients = new ForkJoinPool(8);
+            clients.submit(() -> IntStream.range(0, test.size()).parallel().forEach(i -> {
+                double[] row = CompiledModel.toRow(test.get(i), rbf.getFeatureNum());
+                StringBuilder body = new StringBuilder();
+                for (double value : row) {
+                    body.append(value).append(' ');
+                }
+                for (CompiledModel model : new CompiledModel[]{rbf, multiClass}) {
+                    String name = model == rbf ? "risk" : "kind";
+                    String[] scores = post(port, "/predict/" + name, body.toString()).trim().split(" ");
+                    double[] expected = new double[model.getDecisionValueNum()];
+                    model.decisionValues(row, expected);
+                    assertEquals(model.predict(row), Double.parseDouble(scores[0]), 0.0d);
+                    for (int k = 0; k < expected.length; k++) {
+                        assertEquals(expected[k], Double.parseDouble(scores[k + 1]), 0.0d);
+                    }
+                }
+            })).get();
+            clients.shutdown();
+
+            PredictionServer.Stats stats = server.getStats("risk");
+            assertEquals(test.size(), stats.getRequests());
+            assertEquals(test.size(), stats.getRows());
+            assertTrue(stats.getBatches() <= test.size());
+            assertEquals(0, stats.getErrors());
+            assertTrue(post(port, "/stats", "").contains("kind " + test.size()));
+            assertTrue(stats.getMeanLatencyMicros() > 0.0d);
+
+            // several rows in one request, sparse and dense
+            String two = post(port, "/predict/risk", "1:0.5 3:-0.5\n0.5 0 -0.5\n");
+            String[] lines = two.split("\n");
+            assertEquals(2, lines.length);
+            assertEquals(lines[0], lines[1]);
+
+            // a feature beyond the model still takes part in the RBF distances
+            double[] row = new double[rbf.getFeatureNum()];
+            row[0] = 0.5d;
+            double[] expected = new double[1];
+            rbf.decisionValues(row, 4.0d, expected);
+            String[] scores = post(port, "/predict/risk", "1:0.5 " + (rbf.getFeatureNum() + 1) + ":2.0").split(" ");
+            assertEquals(expected[0], Double.parseDouble(scores[1].trim()), 1e-12);
+
+            server.maxRows = 2;
+            assertEquals(413, postStatus(port, "/predict/risk", "0.5\n0.5\n0.5\n"));
+            server.maxRequestBytes = 8;
+            assertEquals(413, postStatus(port, "/predict/risk", "0.5 0.5 0.5\n"));
+        }
+
+        // requests waiting for their batch are answered when the server stops
+        PredictionServer server = new PredictionServer(registry);
+        server.batchSize = 1000;
+        server.maxDelayMicros = 60_000_000L;
+        int port = server.start(0);
+        List<CompletableFuture<Integer>> waiting = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            waiting.add(CompletableFuture.supplyAsync(() -> postStatus(port, "/predict/risk", "0.5")));
+        }
+        Thread.sleep(500);
+        server.close();
+        for (CompletableFuture<Integer> status : waiting) {
+            assertEquals(503, (int) status.get());
+        }
+
+        // started again, with new batchers
+        server.maxDelayMicros = 2000;
+        int again = server.start(0);
+        try {
+            assertEquals(200, postStatus(again, "/predict/risk", "0.5"));
+            try {
+                server.start(0);
+                fail();
+            } catch (IllegalStateException e) {
+                // already serving
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private static int postStatus(int port, String path, String body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+                    .openConnection();
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String post(int port, String path, String body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+                    .openConnection();
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(200, connection.getResponseCode());
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                StringBuilder response = new StringBuilder();
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    response.append(line).append('\n');
+                }
+                return response.toString();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        load();
+        svm_model model = trainModel(train, svm_parameter.RBF);
+        SVM classifier = new SVM();
+        classifier.predictionCacheSize = 2 * test.size();
+        Predictor predictor = new Predictor(model);
+        RBFModel compiled = (RBFModel) predictor.getCompiledModel();
+
+        // off, nothing is recorded
+        long before = PredictionMetrics.timer("predictor.predict").getCount();
+        test.forEach(predictor::predict);
+        assertEquals(before, PredictionMetrics.timer("predictor.predict").getCount());
+
+        PredictionMetrics.setEnabled(true);
+        PredictionMetrics.gauges("svm.predict.cache", classifier.getPredictionCache());
+        try {
+            long predicts = PredictionMetrics.timer("predictor.predict").getCount();
+            long svmPredicts = PredictionMetrics.timer("svm.predict").getCount();
+            for (int i = 0; i < 3; i++) {
+                for (Sample sample : test) {
+                    predictor.predict(sample);
+                    classifier.predict(model, sample);
+                    compiled.predictEarly(CompiledModel.toRow(sample, compiled.getFeatureNum()));
+                }
+            }
+            PredictionMetrics.Timer timer = PredictionMetrics.timer("predictor.predict");
+            assertEquals(predicts + 3 * test.size(), timer.getCount());
+            assertEquals(model.l, timer.getKernelsPerCall(), 0.0d);
+            assertTrue(timer.getP50Micros() <= timer.getP99Micros());
+            assertTrue(timer.getP99Micros() <= timer.getP999Micros());
+            assertTrue(timer.getP999Micros() <= timer.getMaxMicros());
+            assertEquals(svmPredicts + 3 * test.size(), PredictionMetrics.timer("svm.predict").getCount());
+            // the second and third rounds are cache hits computing no kernel value
+            assertTrue(PredictionMetrics.timer("svm.predict").getKernelsPerCall() < model.l);
+            assertTrue(PredictionMetrics.timer("rbf.predictEarly").getKernelsPerCall() < model.l);
+            assertEquals(classifier.getPredictionCache().getHitRate(),
+                    PredictionMetrics.gaugeValues().get("svm.predict.cache.hitRate"), 0.0d);
+
+            PredictionMetrics.registerJmx();
+            Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName("customs.svm:type=timer,name=\"predictor.predict\""), "Count");
+            assertEquals(timer.getCount(), count);
+
+            CountDownLatch reported = new CountDownLatch(1);
+            PredictionMetrics.startReporting((timers, gauges) -> {
+                if (timers.containsKey("svm.predict") && gauges.containsKey("svm.predict.cache.hits")) {
+                    reported.countDown();
+                }
+            }, 10, TimeUnit.MILLISECONDS);
+            assertTrue(reported.await(10, TimeUnit.SECONDS));
+            PredictionMetrics.logReporter().report(PredictionMetrics.snapshots(), PredictionMetrics.gaugeValues());
+
+            PredictionMetrics.removeGauges("svm.predict.cache");
+            assertFalse(PredictionMetrics.gaugeValues().containsKey("svm.predict.cache.hits"));
+            assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                    new ObjectName("customs.svm:type=gauge,name=\"svm.predict.cache.hits\"")));
+        } finally {
+            PredictionMetrics.stopReporting();
+            PredictionMetrics.removeGauges("svm.predict.cache");
+            PredictionMetrics.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void tailFeatureTest() {
+        // a model of feature 1 only
+        Dataset data = new Dataset();
+        data.setFeatureNum(1);
+        for (int i = 0; i < 20; i++) {
+            Sample sample = new Sample(new double[]{i / 10.0d - 1.0d});
+            sample.setLabel(i < 10 ? -1.0d : 1.0d);
+            data.add(sample);
+        }
+        svm_model model = trainModel(data, svm_parameter.RBF);
+
+        // feature 2 is in no support vector, but in the RBF distances of libsvm
+        Sample sample = new Sample(new double[]{0.2d, 3.0d});
+        Dataset queries = new Dataset();
+        queries.setFeatureNum(2);
+        queries.add(sample);
+        double[] expected = new double[1];
+        svm.svm_predict_values(model, sample.getFeatureArray(), expected);
+
+        Predictor predictor = new Predictor(model);
+        assertEquals(expected[0], predictor.decisionValues(sample)[0], 1e-12);
+        assertEquals(svm.svm_predict(model, sample.getFeatureArray()), predictor.predict(sample), 0.0d);
+        assertEquals(expected[0], predictor.decisionValuesBatch(queries)[0][0], 1e-12);
+        EnsembleScorer scorer = new EnsembleScorer(Arrays.asList(predictor.getCompiledModel()));
+        assertEquals(expected[0], scorer.score(sample)[1], 1e-12);
+        assertEquals(expected[0], scorer.score(queries)[0][1], 1e-12);
+    }
+}
+
+// End PredictTests.java
@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import core.BayesianStrategy;
+import core.ResultStore;
+import core.SVM;
+import core.SuccessiveHalvingStrategy;
+import data.Dataset;
+import data.SVMFileReader;
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_parameter;
+import org.junit.Test;
+import predict.Predictor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link SVM} on a small part of the training set.
+ */
+public final class SVMTests {
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Every 10th sample of the training set, so that both labels are kept.
+     */
+    private static Dataset smallTrainData() {
+        Dataset data = SVMFileReader.getInstance().read("./datasets/train");
+        Dataset small = new Dataset();
+        small.setFeatureNum(data.getFeatureNum());
+        for (int i = 0; i < data.size(); i += 10) {
+            small.add(data.get(i));
+        }
+        small.linearScale();
+        return small;
+    }
+
+    /**
+     * A new instance, so that no test sees the settings of another, searching powers -2 to 2 of C and gamma.
+     */
+    private static SVM smallGridSVM() {
+        SVM svm = new SVM();
+        svm.C_StartPower = -2;
+        svm.C_StopPower = 2;
+        svm.G_StartPower = -2;
+        svm.G_StopPower = 2;
+        return svm;
+    }
+
+    @Test
+    public void parallelGridSearchTest() {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+
+        svm.parallelism = 1;
+        svm_parameter sequential = (svm_parameter) svm.gridSearch(data).clone();
+        svm.parallelism = 4;
+        svm_parameter parallel = (svm_parameter) svm.gridSearch(data).clone();
+
+        assertEquals(sequential.C, parallel.C, 0.0d);
+        assertEquals(sequential.gamma, parallel.gamma, 0.0d);
+
+        svm.concurrentFolds = true;
+        svm_parameter concurrent = (svm_parameter) svm.gridSearch(data).clone();
+
+        assertEquals(sequential.C, concurrent.C, 0.0d);
+        assertEquals(sequential.gamma, concurrent.gamma, 0.0d);
+
+        // the folds go to the common pool
+        svm.parallelism = 1;
+        svm_parameter common = (svm_parameter) svm.gridSearch(data).clone();
+
+        assertEquals(sequential.C, common.C, 0.0d);
+        assertEquals(sequential.gamma, common.gamma, 0.0d);
+    }
+
+    @Test
+    public void precomputedKernelTest() {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+
+        svm.precomputeKernel = false;
+        svm_parameter original = (svm_parameter) svm.gridSearch(data).clone();
+        svm.precomputeKernel = true;
+        svm_parameter precomputed = (svm_parameter) svm.gridSearch(data).clone();
+
+        assertEquals(original.C, precomputed.C, 0.0d);
+        assertEquals(original.gamma, precomputed.gamma, 0.0d);
+    }
+
+    @Test
+    public void warmStartTest() {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+
+        svm.warmStart = false;
+        svm_parameter cold = (svm_parameter) svm.gridSearch(data).clone();
+        svm.warmStart = true;
+        svm_parameter warm = (svm_parameter) svm.gridSearch(data).clone();
+
+        assertEquals(cold.C, warm.C, 0.0d);
+        assertEquals(cold.gamma, warm.gamma, 0.0d);
+    }
+
+    @Test
+    public void pruneFoldsTest() {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+
+        svm.pruneFolds = false;
+        svm_parameter full = (svm_parameter) svm.gridSearch(data).clone();
+        assertEquals(0, svm.getPrunedCells());
+        svm.pruneFolds = true;
+        svm_parameter pruned = (svm_parameter) svm.gridSearch(data).clone();
+        int prunedCells = svm.getPrunedCells();
+        int skippedFolds = svm.getSkippedFolds();
+        svm.warmStart = true;
+        svm_parameter warmPruned = (svm_parameter) svm.gridSearch(data).clone();
+
+        assertEquals(full.C, pruned.C, 0.0d);
+        assertEquals(full.gamma, pruned.gamma, 0.0d);
+        assertTrue(prunedCells > 0);
+        assertTrue(skippedFolds >= prunedCells);
+        assertEquals(full.C, warmPruned.C, 0.0d);
+        assertEquals(full.gamma, warmPruned.gamma, 0.0d);
+        assertTrue(svm.getPrunedCells() > 0);
+        assertTrue(svm.getSkippedFolds() >= svm.getPrunedCells());
+    }
+
+    @Test
+    public void resultStoreTest() throws IOException {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+
+        File file = File.createTempFile("results", ".txt");
+        file.deleteOnExit();
+        file.delete();
+        svm.resultStore = file.getPath();
+        svm_parameter first = (svm_parameter) svm.gridSearch(data).clone();
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(16, lines.size());
+
+        // a search killed while writing the 7th result
+        Files.write(file.toPath(), (String.join("\n", lines.subList(0, 6)) + "\n"
+                + lines.get(6).substring(0, 20)).getBytes(StandardCharsets.UTF_8));
+        svm_parameter resumed = (svm_parameter) svm.gridSearch(data).clone();
+        assertEquals(first.C, resumed.C, 0.0d);
+        assertEquals(first.gamma, resumed.gamma, 0.0d);
+        assertEquals(16, new ResultStore(file.getPath()).size());
+
+        // nothing left to validate
+        svm.gridSearch(data);
+        assertEquals(17, Files.readAllLines(file.toPath()).size());
+    }
+
+    @Test
+    public void localWorkersTest() {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+
+        svm_parameter local = (svm_parameter) svm.gridSearch(data).clone();
+        svm.localWorkers = 2;
+        svm_parameter distributed = (svm_parameter) svm.gridSearch(data).clone();
+
+        assertEquals(local.C, distributed.C, 0.0d);
+        assertEquals(local.gamma, distributed.gamma, 0.0d);
+    }
+
+    @Test
+    public void concurrentInstancesTest() throws Exception {
+        Dataset data = smallTrainData();
+
+        SVM first = new SVM();
+        first.setC(1.0d);
+        SVM second = new SVM();
+        second.setC(4.0d);
+        second.setKernelType(svm_parameter.LINEAR);
+        double[] expected = {first.train(data).rho[0], second.train(data).rho[0]};
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<svm_model> firstModel = executor.submit(() -> first.train(data));
+            Future<svm_model> secondModel = executor.submit(() -> second.train(data));
+            assertEquals(expected[0], firstModel.get().rho[0], 0.0d);
+            assertEquals(expected[1], secondModel.get().rho[0], 0.0d);
+
+            // one predictor shared by all threads
+            Predictor predictor = first.getPredictor();
+            double[] labels = new double[data.size()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = svm.svm_predict(firstModel.get(), data.get(i).getFeatureArray());
+            }
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < labels.length; i++) {
+                        if (predictor.predict(data.get(i)) != labels[i]) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void successiveHalvingTest() {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+        svm.gridSearch(data);
+        double gridAccuracy = svm.getBestAccuracy();
+
+        SuccessiveHalvingStrategy strategy = new SuccessiveHalvingStrategy(svm);
+        svm.search(data, strategy);
+
+        // the refinements may beat the grid, the halving may miss its best cell by little
+        assertTrue(svm.getBestAccuracy() >= gridAccuracy - 1.0d);
+        // 16 cells, 6 left on a third of the samples, 2 on all of them, and 8 neighbours per refinement
+        assertEquals(2 + 8 * strategy.refinements, svm.getValidatedCells());
+
+        // rounds that would never reach all samples
+        strategy.eta = 1;
+        try {
+            svm.search(data, strategy);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        strategy.eta = 3;
+        strategy.minFraction = 0.0d;
+        try {
+            svm.search(data, strategy);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void bayesianTest() {
+        Dataset data = smallTrainData();
+
+        SVM svm = smallGridSVM();
+        svm.gridSearch(data);
+        double gridAccuracy = svm.getBestAccuracy();
+
+        BayesianStrategy strategy = new BayesianStrategy(svm);
+        strategy.maxEvaluations = 10;
+        svm.search(data, strategy);
+
+        // fewer cells than the grid, but close to its best one
+        assertTrue(svm.getBestAccuracy() >= gridAccuracy - 1.0d);
+        assertEquals(strategy.maxEvaluations, svm.getValidatedCells());
+    }
+}
+
+// End SVMTests.java
@@ -12,6 +12,7 @@
  * limitations under the License.
  */
 import data.Dataset;
+import data.DatasetFile;
 import data.SVMFileReader;
 import data.Sample;
 import libsvm.svm_node;
@@ -19,8 +20,13 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 /**
  * Created by edwardlol on 17-4-18.
  */
@@ -88,6 +94,21 @@ public final class UtilTests {
             System.out.println(column[0]);
         }
     }
+
+    @Test
+    public void datasetFileTest() throws IOException {
+        Dataset data = SVMFileReader.getInstance().read("./datasets/train");
+        data.linearScale();
+
+        File file = File.createTempFile("dataset", ".bin");
+        file.deleteOnExit();
+        DatasetFile.write(data, file.getPath());
+        Dataset mapped = DatasetFile.read(file.getPath());
+
+        assertEquals(data.size(), mapped.size());
+        assertTrue(mapped.isScaled());
+        assertEquals(data.fingerprint(), mapped.fingerprint());
+    }
 }
 
 // End UtilTests.java